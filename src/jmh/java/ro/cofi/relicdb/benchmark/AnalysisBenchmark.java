@@ -0,0 +1,89 @@
+package ro.cofi.relicdb.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ro.cofi.relicdb.LoadedDB;
+import ro.cofi.relicdb.ResultPage;
+import ro.cofi.relicdb.io.DBChoice;
+import ro.cofi.relicdb.model.DBModel;
+import ro.cofi.relicdb.scoring.AnalysisFilters;
+import ro.cofi.relicdb.scoring.AnalysisRecipe;
+import ro.cofi.relicdb.scoring.MainStatScoreType;
+import ro.cofi.relicdb.scoring.RankScoreType;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Analyzes a different relic on each call, cycling through more relics than the analysis cache holds,
+// so that every call pays for a full analysis like a new query from the user does.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnalysisBenchmark {
+
+    private static final int RECIPE_COUNT = 1024;
+    private static final int PAGE_SIZE = 20;
+
+    @Param({ "300", "30000" })
+    private int characterCount;
+
+    // the lowest set rank, the lowest main stat score and the substat count accepted
+    @Param({ "UNACCEPTABLE/UNACCEPTABLE/0", "ACCEPTABLE/IDEAL/0", "IDEAL/IDEAL/2" })
+    private String filter;
+
+    private LoadedDB loadedDB;
+    private List<AnalysisRecipe> recipes;
+    private AnalysisFilters filters;
+    private int nextRecipe;
+
+    @Setup
+    public void setUp() {
+        DBModel model = DBModel.compile(BenchmarkData.generateDB(characterCount, BenchmarkData.SEED));
+        loadedDB = new LoadedDB(model, DBChoice.DUMMY);
+        recipes = BenchmarkData.generateRecipes(model, RECIPE_COUNT, BenchmarkData.SEED);
+
+        String[] parts = filter.split("/");
+        filters = new AnalysisFilters(
+            RankScoreType.valueOf(parts[0]).getHigherScores(),
+            MainStatScoreType.valueOf(parts[1]).getHigherScores(),
+            Integer.parseInt(parts[2])
+        );
+    }
+
+    private AnalysisRecipe nextRecipe() {
+        AnalysisRecipe recipe = recipes.get(nextRecipe);
+        nextRecipe = (nextRecipe + 1) % recipes.size();
+        return recipe;
+    }
+
+    // scores, sorts and renders every result
+    @Benchmark
+    public String analyzeItem() {
+        return loadedDB.analyzeItem(nextRecipe(), filters);
+    }
+
+    // what the window does, only sorting the first page
+    @Benchmark
+    public ResultPage firstPage() {
+        return loadedDB.getPage(nextRecipe(), filters, 0, PAGE_SIZE);
+    }
+
+    // what batches and the query server do, bypassing the cache
+    @Benchmark
+    public ResultPage computeTopScores() {
+        return loadedDB.computeTopScores(nextRecipe(), filters, PAGE_SIZE);
+    }
+
+}
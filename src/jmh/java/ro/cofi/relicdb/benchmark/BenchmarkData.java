@@ -0,0 +1,154 @@
+package ro.cofi.relicdb.benchmark;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import ro.cofi.relicdb.logic.RelicPart;
+import ro.cofi.relicdb.logic.RelicType;
+import ro.cofi.relicdb.logic.Stat;
+import ro.cofi.relicdb.model.DBModel;
+import ro.cofi.relicdb.scoring.AnalysisRecipe;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+// Generates DBs shaped like scraped ones, so that benchmarks do not depend on a stored version being present.
+// The same seed always generates the same DB, which keeps results comparable from run to run.
+final class BenchmarkData {
+
+    static final long SEED = 42;
+
+    private static final int RELIC_SETS = 24;
+    private static final int ORNAMENT_SETS = 16;
+    private static final int MAX_RANKS = 4;
+    private static final int MAX_SUB_STAT_LINES = 5;
+
+    private BenchmarkData() { }
+
+    static JsonObject generateDB(int characterCount, long seed) {
+        Random random = new Random(seed);
+
+        JsonObject root = new JsonObject();
+        root.addProperty(DBModel.SCHEMA_VERSION_KEY, DBModel.CURRENT_SCHEMA_VERSION);
+
+        List<String> relicSets = setNames("Relic Set", RELIC_SETS);
+        List<String> ornamentSets = setNames("Ornament Set", ORNAMENT_SETS);
+        root.add(RelicType.RELIC.getJsonKey(), toArray(relicSets));
+        root.add(RelicType.ORNAMENT.getJsonKey(), toArray(ornamentSets));
+
+        JsonArray characters = new JsonArray();
+        for (int i = 0; i < characterCount; i++)
+            characters.add(generateCharacter(i, random, relicSets, ornamentSets));
+
+        root.add("characters", characters);
+        return root;
+    }
+
+    // a different relic each time, over every type, part and set
+    static List<AnalysisRecipe> generateRecipes(DBModel model, int count, long seed) {
+        Random random = new Random(seed);
+        List<AnalysisRecipe> recipes = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            RelicType type = RelicType.values()[i % RelicType.values().length];
+            RelicPart part = pick(random, type.getParts());
+            Stat mainStat = pick(random, part.getAvailableStats());
+
+            List<Stat> subStats = new ArrayList<>(List.of(Stat.values()));
+            subStats.remove(mainStat);
+            Collections.shuffle(subStats, random);
+
+            recipes.add(new AnalysisRecipe(
+                type, part, pick(random, model.getWeaponNames(type)), mainStat,
+                subStats.get(0), subStats.get(1), subStats.get(2), subStats.get(3)
+            ));
+        }
+
+        return recipes;
+    }
+
+    private static JsonObject generateCharacter(
+        int index, Random random, List<String> relicSets, List<String> ornamentSets
+    ) {
+        JsonObject character = new JsonObject();
+        character.addProperty("name", String.format("Character %05d", index));
+        character.addProperty("url", String.format("https://example.com/characters/%d/", index));
+
+        character.add(RelicType.RELIC.getJsonKey(), generateWeaponOptions(random, relicSets, 4));
+        character.add(RelicType.ORNAMENT.getJsonKey(), generateWeaponOptions(random, ornamentSets, 2));
+
+        JsonObject mainStats = new JsonObject();
+        for (RelicPart part : RelicPart.values())
+            if (part.getJsonKey() != null) // some relics have fixed main stats
+                mainStats.add(part.getJsonKey(), generateStatOptions(random, part.getAvailableStats()));
+
+        character.add("mainStats", mainStats);
+
+        JsonArray subStats = new JsonArray();
+        int subStatLines = 2 + random.nextInt(MAX_SUB_STAT_LINES - 1);
+        for (int i = 0; i < subStatLines; i++)
+            subStats.add(generateStatOptions(random, List.of(Stat.values())));
+
+        character.add("subStats", subStats);
+        return character;
+    }
+
+    private static JsonArray generateWeaponOptions(Random random, List<String> setNames, int fullSetCount) {
+        JsonArray options = new JsonArray();
+        int rankCount = 1 + random.nextInt(MAX_RANKS);
+
+        for (int rank = 1; rank <= rankCount; rank++) {
+            // mostly full sets, sometimes two halves
+            boolean split = random.nextInt(4) == 0;
+            List<String> names = new ArrayList<>(setNames);
+            Collections.shuffle(names, random);
+
+            JsonArray sets = new JsonArray();
+            for (String name : names.subList(0, split ? 2 : 1)) {
+                JsonObject set = new JsonObject();
+                set.addProperty("name", name);
+                set.addProperty("count", split ? fullSetCount / 2 : fullSetCount);
+                sets.add(set);
+            }
+
+            JsonObject option = new JsonObject();
+            option.addProperty("rank", rank);
+            option.add("sets", sets);
+            options.add(option);
+        }
+
+        return options;
+    }
+
+    private static JsonArray generateStatOptions(Random random, List<Stat> stats) {
+        List<Stat> shuffled = new ArrayList<>(stats);
+        Collections.shuffle(shuffled, random);
+
+        JsonArray options = new JsonArray();
+        int optionCount = Math.min(shuffled.size(), random.nextInt(3) == 0 ? 2 : 1);
+        for (Stat stat : shuffled.subList(0, optionCount))
+            options.add(stat.name());
+
+        return options;
+    }
+
+    private static List<String> setNames(String prefix, int count) {
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            names.add(prefix + " " + i);
+
+        return names;
+    }
+
+    private static JsonArray toArray(List<String> values) {
+        JsonArray array = new JsonArray();
+        values.forEach(array::add);
+        return array;
+    }
+
+    private static <T> T pick(Random random, List<T> values) {
+        return values.get(random.nextInt(values.size()));
+    }
+
+}
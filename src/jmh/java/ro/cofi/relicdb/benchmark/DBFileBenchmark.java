@@ -0,0 +1,166 @@
+package ro.cofi.relicdb.benchmark;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ro.cofi.relicdb.LoadedDB;
+import ro.cofi.relicdb.io.DBChoice;
+import ro.cofi.relicdb.io.DBFileFormat;
+import ro.cofi.relicdb.io.DBFileManager;
+import ro.cofi.relicdb.io.DBModelReader;
+import ro.cofi.relicdb.model.DBModel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Every state stores its versions in a temporary directory of its own, never in the user's storage directory.
+// Stores start from an empty directory each time, so earlier invocations do not turn full stores into deltas.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DBFileBenchmark {
+
+    private static final String TEMP_DIR_PREFIX = "relicdb-benchmark";
+    private static final String STORAGE_DIR = "RelicDBVersions";
+
+    @State(Scope.Benchmark)
+    public static class StoredVersion {
+
+        @Param({ "3000" })
+        private int characterCount;
+
+        private Path tempDir;
+        private DBFileManager dbFileManager;
+        private DBChoice choice;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            tempDir = Files.createTempDirectory(TEMP_DIR_PREFIX);
+            Path storageDir = tempDir.resolve(STORAGE_DIR);
+
+            DBFileManager storingManager = new DBFileManager(storageDir, DBFileFormat.PRETTY);
+            File file = new File(storingManager.storeDBFile(
+                BenchmarkData.generateDB(characterCount, BenchmarkData.SEED)
+            ));
+            choice = new DBChoice(file, file.lastModified());
+
+            // the first load writes the snapshot, which shutting down waits for
+            storingManager.loadDBFile(choice, false);
+            storingManager.shutdown();
+
+            dbFileManager = new DBFileManager(storageDir, DBFileFormat.PRETTY);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            dbFileManager.shutdown();
+            deleteRecursively(tempDir);
+        }
+
+    }
+
+    @State(Scope.Thread)
+    public static class EmptyStorage {
+
+        @Param({ "3000" })
+        private int characterCount;
+
+        protected JsonObject data;
+        protected DBFileManager dbFileManager;
+
+        private Path tempDir;
+
+        @Setup(Level.Trial)
+        public void generate() {
+            data = BenchmarkData.generateDB(characterCount, BenchmarkData.SEED);
+        }
+
+        @Setup(Level.Invocation)
+        public void setUp() throws IOException {
+            tempDir = Files.createTempDirectory(TEMP_DIR_PREFIX);
+            dbFileManager = new DBFileManager(tempDir.resolve(STORAGE_DIR), DBFileFormat.PRETTY);
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() throws IOException {
+            dbFileManager.shutdown();
+            deleteRecursively(tempDir);
+        }
+
+    }
+
+    @State(Scope.Thread)
+    public static class StoredBase extends EmptyStorage {
+
+        private JsonObject changedData;
+
+        @Setup(Level.Trial)
+        public void change() {
+            // a typical update only touches a few characters
+            changedData = data.deepCopy();
+            JsonArray characters = changedData.getAsJsonArray("characters");
+            characters.get(characters.size() / 2).getAsJsonObject().addProperty("url", "https://example.com/changed/");
+        }
+
+        @Setup(Level.Invocation)
+        public void storeBase() throws IOException {
+            dbFileManager.storeDBFile(data);
+        }
+
+    }
+
+    // every load after the first one reads the snapshot next to the file
+    @Benchmark
+    public LoadedDB loadDBFile(StoredVersion storedVersion) throws IOException {
+        return storedVersion.dbFileManager.loadDBFile(storedVersion.choice, false);
+    }
+
+    // what the first load of a version pays
+    @Benchmark
+    public DBModel parseDBFile(StoredVersion storedVersion) throws IOException {
+        try (Reader reader = Files.newBufferedReader(storedVersion.choice.getFile().toPath(), StandardCharsets.UTF_8)) {
+            return DBModelReader.read(reader);
+        }
+    }
+
+    @Benchmark
+    public String storeDBFile(EmptyStorage emptyStorage) throws IOException {
+        return emptyStorage.dbFileManager.storeDBFile(emptyStorage.data);
+    }
+
+    // stored as a delta against the version stored before it
+    @Benchmark
+    public String storeDeltaDBFile(StoredBase storedBase) throws IOException {
+        return storedBase.dbFileManager.storeDBFile(storedBase.changedData);
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        // deepest paths first, so every directory is empty by the time it is deleted
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList())
+                Files.delete(path);
+        }
+    }
+
+}
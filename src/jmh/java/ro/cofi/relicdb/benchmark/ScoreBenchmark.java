@@ -0,0 +1,86 @@
+package ro.cofi.relicdb.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ro.cofi.relicdb.logic.RelicPart;
+import ro.cofi.relicdb.logic.Stat;
+import ro.cofi.relicdb.model.CharacterEntry;
+import ro.cofi.relicdb.model.DBModel;
+import ro.cofi.relicdb.model.StatOptions;
+import ro.cofi.relicdb.scoring.MainStatScoreType;
+import ro.cofi.relicdb.scoring.RankScoreType;
+import ro.cofi.relicdb.scoring.Score;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Scores are built for every match of an analysis, but only the displayed ones are rendered.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScoreBenchmark {
+
+    private static final int CHARACTER_COUNT = 1024;
+    private static final RelicPart PART = RelicPart.BODY;
+
+    private List<CharacterEntry> characters;
+    private Score[] scores;
+    private long ownedSubStats;
+    private Stat mainStat;
+    private int nextCharacter;
+
+    @Setup
+    public void setUp() {
+        DBModel model = DBModel.compile(BenchmarkData.generateDB(CHARACTER_COUNT, BenchmarkData.SEED));
+        characters = model.getCharacters();
+
+        mainStat = PART.getAvailableStats().get(0);
+        ownedSubStats = Stat.maskOf(Stat.SPD, Stat.CRIT_RATE, Stat.CRIT_DMG, Stat.ATK_PCT);
+
+        scores = new Score[characters.size()];
+        for (int i = 0; i < scores.length; i++)
+            scores[i] = createScore(characters.get(i));
+    }
+
+    private Score createScore(CharacterEntry character) {
+        StatOptions mainStatOptions = character.getMainStats(PART);
+        MainStatScoreType mainStatScoreType = mainStatOptions.contains(mainStat)
+            ? MainStatScoreType.IDEAL
+            : MainStatScoreType.UNACCEPTABLE;
+
+        return new Score(
+            character,
+            RankScoreType.ACCEPTABLE, null,
+            mainStatScoreType, mainStatOptions, mainStat,
+            character.getMetSubStatLines(ownedSubStats)
+        );
+    }
+
+    @Benchmark
+    public Score construct() {
+        CharacterEntry character = characters.get(nextCharacter);
+        nextCharacter = (nextCharacter + 1) % characters.size();
+
+        return createScore(character);
+    }
+
+    @Benchmark
+    public String render() {
+        Score score = scores[nextCharacter];
+        nextCharacter = (nextCharacter + 1) % scores.length;
+
+        return score.getDescription();
+    }
+
+}
@@ -0,0 +1,45 @@
+package ro.cofi.relicdb.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import ro.cofi.relicdb.logic.Stat;
+
+import java.util.concurrent.TimeUnit;
+
+// Stat names are matched against every stat while scraping and while reading inventories.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatBenchmark {
+
+    private static final Stat[] STATS = Stat.values();
+
+    // the first stat, a later one written in another case, and a name that matches nothing
+    @Param({ "HP", "crit dmg", "Unknown Stat" })
+    private String target;
+
+    @Benchmark
+    public boolean matchesOne() {
+        return Stat.CRIT_DMG.matches(target);
+    }
+
+    // how a name is resolved, looking at every stat in turn
+    @Benchmark
+    public void matchesAll(Blackhole blackhole) {
+        for (Stat stat : STATS)
+            blackhole.consume(stat.matches(target));
+    }
+
+}
@@ -11,13 +11,16 @@ module ro.cofi.relicdb {
     requires org.apache.commons.io;
     requires jdk.xml.dom;
     requires java.desktop;
+    requires jdk.httpserver;
 
     opens ro.cofi.relicdb to javafx.fxml;
     exports ro.cofi.relicdb;
     exports ro.cofi.relicdb.io;
-    opens ro.cofi.relicdb.io to javafx.fxml;
+    opens ro.cofi.relicdb.io to javafx.fxml, com.google.gson;
     exports ro.cofi.relicdb.logic;
     opens ro.cofi.relicdb.logic to javafx.fxml;
+    exports ro.cofi.relicdb.model;
+    opens ro.cofi.relicdb.model to javafx.fxml;
     exports ro.cofi.relicdb.scoring;
     opens ro.cofi.relicdb.scoring to javafx.fxml;
 }
\ No newline at end of file
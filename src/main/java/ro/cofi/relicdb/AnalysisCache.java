@@ -0,0 +1,118 @@
+package ro.cofi.relicdb;
+
+import ro.cofi.relicdb.logic.RelicPart;
+import ro.cofi.relicdb.logic.RelicType;
+import ro.cofi.relicdb.logic.Stat;
+import ro.cofi.relicdb.scoring.AnalysisFilters;
+import ro.cofi.relicdb.scoring.AnalysisRecipe;
+import ro.cofi.relicdb.scoring.Score;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Sorted analysis results of a single DB. Filters only ever remove results, so a query can also be answered by
+// narrowing down the results of a cached query with the same recipe and looser filters.
+class AnalysisCache {
+
+    private final int maxResults;
+    private final int maxScores;
+
+    private final LinkedHashMap<ResultKey, List<Score>> results = new LinkedHashMap<>(16, 0.75f, true);
+    // queries answered without caching their results, most recent last
+    private final LinkedHashMap<ResultKey, Boolean> uncachedQueries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private int scoreCount;
+
+    AnalysisCache(int maxResults, int maxScores) {
+        this.maxResults = maxResults;
+        this.maxScores = maxScores;
+    }
+
+    synchronized List<Score> get(AnalysisRecipe recipe, AnalysisFilters filters) {
+        RecipeKey recipeKey = RecipeKey.of(recipe);
+
+        List<Score> exact = results.get(new ResultKey(recipeKey, filters));
+        if (exact != null)
+            return exact;
+
+        for (Map.Entry<ResultKey, List<Score>> entry : results.entrySet()) {
+            ResultKey key = entry.getKey();
+            if (!key.recipe().equals(recipeKey) || !isLooser(key.filters(), filters))
+                continue;
+
+            // refresh the superset, since it was just useful
+            List<Score> superset = results.get(key);
+
+            // filtering keeps the order, no need to sort again
+            return superset.stream().filter(score -> passes(score, filters)).toList();
+        }
+
+        return null;
+    }
+
+    // records a query which was not cached, and returns whether it was already recorded before
+    synchronized boolean isRepeated(AnalysisRecipe recipe, AnalysisFilters filters) {
+        ResultKey key = new ResultKey(RecipeKey.of(recipe), filters);
+        if (uncachedQueries.remove(key) != null)
+            return true;
+
+        uncachedQueries.put(key, Boolean.TRUE);
+
+        Iterator<ResultKey> iterator = uncachedQueries.keySet().iterator();
+        while (uncachedQueries.size() > maxResults) {
+            iterator.next();
+            iterator.remove();
+        }
+
+        return false;
+    }
+
+    synchronized void put(AnalysisRecipe recipe, AnalysisFilters filters, List<Score> scores) {
+        if (scores.size() > maxScores)
+            return;
+
+        List<Score> previous = results.put(new ResultKey(RecipeKey.of(recipe), filters), scores);
+        if (previous != null)
+            scoreCount -= previous.size();
+
+        scoreCount += scores.size();
+
+        // the newest result is the last one, and it always fits
+        Iterator<List<Score>> iterator = results.values().iterator();
+        while (results.size() > maxResults || scoreCount > maxScores) {
+            scoreCount -= iterator.next().size();
+            iterator.remove();
+        }
+    }
+
+    private static boolean passes(Score score, AnalysisFilters filters) {
+        // fixed main stats are never filtered out
+        return filters.acceptedRankScores().contains(score.getRankScoreType())
+            && (score.getMainStatScoreType() == null
+                || filters.acceptMainStatScores().contains(score.getMainStatScoreType()))
+            && score.getMetSubStatCount() >= filters.subStatScoreFilter();
+    }
+
+    private static boolean isLooser(AnalysisFilters cached, AnalysisFilters requested) {
+        return cached.acceptedRankScores().containsAll(requested.acceptedRankScores())
+            && cached.acceptMainStatScores().containsAll(requested.acceptMainStatScores())
+            && cached.subStatScoreFilter() <= requested.subStatScoreFilter();
+    }
+
+    // substats are matched as a set, so their order does not matter
+    record RecipeKey(RelicType type, RelicPart part, String name, Stat mainStat, long subStatMask) {
+
+        static RecipeKey of(AnalysisRecipe recipe) {
+            return new RecipeKey(
+                recipe.type(), recipe.part(), recipe.name(), recipe.mainStat(),
+                Stat.maskOf(recipe.subStat1(), recipe.subStat2(), recipe.subStat3(), recipe.subStat4())
+            );
+        }
+
+    }
+
+    private record ResultKey(RecipeKey recipe, AnalysisFilters filters) { }
+
+}
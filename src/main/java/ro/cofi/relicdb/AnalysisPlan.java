@@ -0,0 +1,199 @@
+package ro.cofi.relicdb;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ro.cofi.relicdb.logic.Stat;
+import ro.cofi.relicdb.model.DBModel;
+import ro.cofi.relicdb.model.DBStatistics;
+import ro.cofi.relicdb.model.SetIndex;
+import ro.cofi.relicdb.model.SetPosting;
+import ro.cofi.relicdb.model.WeaponOption;
+import ro.cofi.relicdb.scoring.AnalysisFilters;
+import ro.cofi.relicdb.scoring.AnalysisRecipe;
+import ro.cofi.relicdb.scoring.MainStatScoreType;
+import ro.cofi.relicdb.scoring.RankScoreType;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
+
+// Narrows down the characters an analysis has to score, before any of them is looked at.
+// Each filter is a predicate over characters, whose selectivity is estimated from the statistics gathered at load time.
+// Only the most selective predicate is evaluated over every character - the others are only checked for the
+// characters which are still candidates, stopping as soon as none are left.
+class AnalysisPlan {
+
+    private static final Logger LOGGER = LogManager.getLogger(AnalysisPlan.class);
+    private static final Stat[] STATS = Stat.values();
+
+    // null if every character may pass
+    private final BitSet candidates;
+
+    private AnalysisPlan(BitSet candidates) {
+        this.candidates = candidates;
+    }
+
+    static AnalysisPlan build(DBModel model, AnalysisRecipe recipe, AnalysisFilters filters, long ownedSubStats) {
+        int characterCount = model.getStatistics().getCharacterCount();
+
+        List<Predicate> predicates = new ArrayList<>();
+        addPredicate(predicates, getSetRankPredicate(model, recipe, filters), characterCount);
+        addPredicate(predicates, getMainStatPredicate(model.getStatistics(), recipe, filters), characterCount);
+        addPredicate(predicates, getSubStatPredicate(model.getStatistics(), filters, ownedSubStats), characterCount);
+
+        if (predicates.isEmpty())
+            return new AnalysisPlan(null);
+
+        // most selective first, by estimate - no predicate has been evaluated yet
+        predicates.sort(Comparator.comparingInt(Predicate::estimate));
+
+        BitSet candidates = predicates.get(0).estimate() > 0 ? predicates.get(0).evaluator().get() : new BitSet();
+        int checkedCount = 1;
+
+        for (; checkedCount < predicates.size() && !candidates.isEmpty(); checkedCount++) {
+            IntPredicate test = predicates.get(checkedCount).test();
+
+            for (int id = candidates.nextSetBit(0); id >= 0; id = candidates.nextSetBit(id + 1))
+                if (!test.test(id))
+                    candidates.clear(id);
+        }
+
+        if (LOGGER.isDebugEnabled())
+            LOGGER.debug(
+                "Analysis plan: {} -> {} of {} characters, after checking {} predicates",
+                predicates.stream().map(predicate -> predicate.name() + "~" + predicate.estimate()).toList(),
+                candidates.cardinality(), characterCount, checkedCount
+            );
+
+        return new AnalysisPlan(candidates);
+    }
+
+    // every character passing all filters is a candidate, but a candidate may still fail the exact checks
+    boolean isCandidate(int characterId) {
+        return candidates == null || candidates.get(characterId);
+    }
+
+    boolean hasCandidates() {
+        return candidates == null || !candidates.isEmpty();
+    }
+
+    // -1 if there are no more candidates
+    int nextCandidate(int fromCharacterId, int characterCount) {
+        if (candidates == null)
+            return fromCharacterId < characterCount ? fromCharacterId : -1;
+
+        return candidates.nextSetBit(fromCharacterId);
+    }
+
+    private static void addPredicate(List<Predicate> predicates, Predicate predicate, int characterCount) {
+        // a filter which everyone passes narrows nothing down
+        if (predicate != null && predicate.estimate() < characterCount)
+            predicates.add(predicate);
+    }
+
+    // exact per character, since the rank only depends on the set
+    private static Predicate getSetRankPredicate(DBModel model, AnalysisRecipe recipe, AnalysisFilters filters) {
+        SetIndex setIndex = model.getSetIndex(recipe.type());
+        int setId = model.getSetId(recipe.name());
+        int characterCount = model.getStatistics().getCharacterCount();
+
+        Set<RankScoreType> acceptedRanks = filters.acceptedRankScores();
+        boolean acceptUnacceptable = acceptedRanks.contains(RankScoreType.UNACCEPTABLE);
+        boolean acceptUsed = acceptedRanks.contains(RankScoreType.IDEAL)
+            || acceptedRanks.contains(RankScoreType.ACCEPTABLE);
+
+        // characters using the set may still have it only at a rejected rank
+        int coverageCount = setIndex.getCoverageCount(setId);
+        int estimate = (acceptUsed ? coverageCount : 0) + (acceptUnacceptable ? characterCount - coverageCount : 0);
+
+        return new Predicate("set rank", estimate, () -> {
+            BitSet characters = new BitSet(characterCount);
+            for (SetPosting posting : setIndex.getPostings(setId))
+                if (acceptedRanks.contains(getRankScoreType(posting.rank())))
+                    characters.set(posting.characterId());
+
+            if (acceptUnacceptable) {
+                BitSet uncovered = (BitSet) setIndex.getCoverage(setId).clone();
+                uncovered.flip(0, characterCount);
+                characters.or(uncovered);
+            }
+
+            return characters;
+        }, characterId -> {
+            if (!setIndex.getCoverage(setId).get(characterId))
+                return acceptUnacceptable;
+
+            for (WeaponOption weaponOption : model.getCharacter(characterId).getWeaponOptions(recipe.type()))
+                if (weaponOption.indexOf(setId) >= 0 && acceptedRanks.contains(getRankScoreType(weaponOption.rank())))
+                    return true;
+
+            return false;
+        });
+    }
+
+    // exact, since the main stat either is one of the options or is not
+    private static Predicate getMainStatPredicate(
+        DBStatistics statistics, AnalysisRecipe recipe, AnalysisFilters filters
+    ) {
+        // fixed main stats are never filtered out
+        if (statistics.hasFixedMainStat(recipe.part()))
+            return null;
+
+        boolean acceptIdeal = filters.acceptMainStatScores().contains(MainStatScoreType.IDEAL);
+        boolean acceptUnacceptable = filters.acceptMainStatScores().contains(MainStatScoreType.UNACCEPTABLE);
+        if (acceptIdeal && acceptUnacceptable)
+            return null;
+
+        BitSet idealCharacters = statistics.getMainStatCharacters(recipe.part(), recipe.mainStat());
+        int idealCount = statistics.getMainStatCount(recipe.part(), recipe.mainStat());
+        int estimate = acceptIdeal ? idealCount : acceptUnacceptable ? statistics.getCharacterCount() - idealCount : 0;
+
+        return new Predicate("main stat", estimate, () -> {
+            BitSet characters = (BitSet) idealCharacters.clone();
+            if (acceptUnacceptable)
+                characters.flip(0, statistics.getCharacterCount());
+            else if (!acceptIdeal)
+                characters.clear();
+
+            return characters;
+        }, characterId -> idealCharacters.get(characterId) ? acceptIdeal : acceptUnacceptable);
+    }
+
+    // a superset when more than one line is required, since a single stat may meet multiple lines
+    private static Predicate getSubStatPredicate(DBStatistics statistics, AnalysisFilters filters, long ownedSubStats) {
+        if (filters.subStatScoreFilter() <= 0)
+            return null;
+
+        // characters accepting several of the owned stats are counted once for each
+        int estimate = 0;
+        for (long mask = ownedSubStats; mask != 0; mask &= mask - 1)
+            estimate += statistics.getSubStatCount(STATS[Long.numberOfTrailingZeros(mask)]);
+
+        return new Predicate("substats", Math.min(estimate, statistics.getCharacterCount()), () -> {
+            BitSet characters = new BitSet(statistics.getCharacterCount());
+            for (long mask = ownedSubStats; mask != 0; mask &= mask - 1)
+                characters.or(statistics.getSubStatCharacters(STATS[Long.numberOfTrailingZeros(mask)]));
+
+            return characters;
+        }, characterId -> {
+            for (long mask = ownedSubStats; mask != 0; mask &= mask - 1)
+                if (statistics.getSubStatCharacters(STATS[Long.numberOfTrailingZeros(mask)]).get(characterId))
+                    return true;
+
+            return false;
+        });
+    }
+
+    private static RankScoreType getRankScoreType(int rank) {
+        return rank == 1 ? RankScoreType.IDEAL : RankScoreType.ACCEPTABLE;
+    }
+
+    // the estimate is an upper bound of the characters passing, the evaluator finds all of them, and the test
+    // checks a single character
+    private record Predicate(String name, int estimate, Supplier<BitSet> evaluator, IntPredicate test) { }
+
+}
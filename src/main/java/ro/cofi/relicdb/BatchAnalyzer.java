@@ -0,0 +1,218 @@
+package ro.cofi.relicdb;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ro.cofi.relicdb.model.DBModel;
+import ro.cofi.relicdb.scoring.AnalysisFilters;
+import ro.cofi.relicdb.scoring.AnalysisRecipe;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Serial;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+// Scores a whole inventory of relics against one loaded DB, and writes the best matches of each to a file.
+// Relics are scored in chunks on a fork/join pool, while the previous chunk is being written, so memory stays bounded.
+// Everything the relics share - the set index, the load-time statistics and the name ranks - is read-only,
+// so the workers never contend, and relics with the same recipe in a chunk are only scored once.
+public class BatchAnalyzer {
+
+    private static final Logger LOGGER = LogManager.getLogger(BatchAnalyzer.class);
+
+    private static final int CHUNK_SIZE = 4096;
+    private static final int LEAF_SIZE = 16;
+
+    private final LoadedDB loadedDB;
+    private final AnalysisFilters filters;
+    private final int resultsPerRelic;
+    private final int parallelism;
+
+    public BatchAnalyzer(LoadedDB loadedDB, AnalysisFilters filters, int resultsPerRelic) {
+        this(loadedDB, filters, resultsPerRelic, Runtime.getRuntime().availableProcessors());
+    }
+
+    public BatchAnalyzer(LoadedDB loadedDB, AnalysisFilters filters, int resultsPerRelic, int parallelism) {
+        if (resultsPerRelic < 1 || parallelism < 1)
+            throw new IllegalArgumentException(String.format(
+                "Invalid batch of %d results per relic on %d threads", resultsPerRelic, parallelism
+            ));
+
+        this.loadedDB = loadedDB;
+        this.filters = filters;
+        this.resultsPerRelic = resultsPerRelic;
+        this.parallelism = parallelism;
+    }
+
+    public Report analyze(List<AnalysisRecipe> relics, Path outputFile) throws IOException {
+        return analyze(relics, outputFile, OutputFormat.JSON_LINES);
+    }
+
+    public Report analyze(List<AnalysisRecipe> relics, Path outputFile, OutputFormat format) throws IOException {
+        warnUnknownSets(relics);
+
+        long startTime = System.nanoTime();
+        int scoredCount = 0;
+
+        Path absoluteFile = outputFile.toAbsolutePath();
+        Path tempFile = Files.createTempFile(absoluteFile.getParent(), absoluteFile.getFileName().toString(), ".tmp");
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+
+        try {
+            try (Writer out = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                ResultWriter writer = new ResultWriter(out, format);
+
+                ForkJoinTask<ChunkResult> pending = relics.isEmpty() ? null : pool.submit(new ChunkTask(relics, 0));
+
+                for (int from = 0; pending != null; from += CHUNK_SIZE) {
+                    ChunkResult chunk = awaitChunk(pending);
+                    scoredCount += chunk.scoredCount();
+
+                    // score the next chunk while this one is written
+                    int next = from + CHUNK_SIZE;
+                    pending = next < relics.size() ? pool.submit(new ChunkTask(relics, next)) : null;
+
+                    for (int i = 0; i < chunk.results().length; i++)
+                        writer.writeRelic(from + i, relics.get(from + i), chunk.results()[i]);
+                }
+            }
+
+            Files.move(tempFile, absoluteFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            pool.shutdownNow();
+            Files.deleteIfExists(tempFile);
+        }
+
+        Report report = new Report(relics.size(), scoredCount, (System.nanoTime() - startTime) / 1_000_000);
+
+        LOGGER.info(
+            "Scored {} relics ({} distinct) in {} ms on {} threads, {} relics/s",
+            report.relicCount(), report.scoredCount(), report.elapsedMillis(), parallelism,
+            String.format("%.0f", report.relicsPerSecond())
+        );
+
+        return report;
+    }
+
+    private void warnUnknownSets(List<AnalysisRecipe> relics) {
+        DBModel model = loadedDB.getModel();
+
+        TreeSet<String> unknownSets = new TreeSet<>();
+        for (AnalysisRecipe relic : relics)
+            if (model.getSetId(relic.name()) == DBModel.UNKNOWN_SET)
+                unknownSets.add(relic.name());
+
+        if (!unknownSets.isEmpty())
+            LOGGER.warn("Sets unknown to \"{}\", no character will rank them: {}", loadedDB.getDBChoice(), unknownSets);
+    }
+
+    private ChunkResult awaitChunk(ForkJoinTask<ChunkResult> chunk) throws IOException {
+        try {
+            return chunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while scoring relics");
+        } catch (ExecutionException e) {
+            throw new IOException("Could not score relics", e.getCause());
+        }
+    }
+
+    // relics with the same recipe point at the first of them, which is the only one scored
+    private class ChunkTask extends RecursiveTask<ChunkResult> {
+
+        // fork/join tasks are never serialized, but they inherit Serializable from ForkJoinTask
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final List<AnalysisRecipe> relics;
+        private final int from;
+
+        ChunkTask(List<AnalysisRecipe> relics, int from) {
+            this.relics = relics;
+            this.from = from;
+        }
+
+        @Override
+        protected ChunkResult compute() {
+            List<AnalysisRecipe> chunk = relics.subList(from, Math.min(from + CHUNK_SIZE, relics.size()));
+
+            int[] sources = new int[chunk.size()];
+            Map<AnalysisCache.RecipeKey, Integer> firstIndexes = new HashMap<>();
+            for (int i = 0; i < chunk.size(); i++) {
+                Integer first = firstIndexes.putIfAbsent(AnalysisCache.RecipeKey.of(chunk.get(i)), i);
+                sources[i] = first != null ? first : i;
+            }
+
+            ResultPage[] results = new ResultPage[chunk.size()];
+            new ScoreTask(chunk, sources, results, 0, chunk.size()).invoke();
+
+            for (int i = 0; i < results.length; i++)
+                if (sources[i] != i)
+                    results[i] = results[sources[i]];
+
+            return new ChunkResult(results, firstIndexes.size());
+        }
+
+    }
+
+    private class ScoreTask extends RecursiveAction {
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final List<AnalysisRecipe> chunk;
+        private final int[] sources;
+        private final ResultPage[] results;
+        private final int from;
+        private final int to;
+
+        ScoreTask(List<AnalysisRecipe> chunk, int[] sources, ResultPage[] results, int from, int to) {
+            this.chunk = chunk;
+            this.sources = sources;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= LEAF_SIZE) {
+                for (int i = from; i < to; i++)
+                    if (sources[i] == i)
+                        results[i] = loadedDB.computeTopScores(chunk.get(i), filters, resultsPerRelic);
+
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(
+                new ScoreTask(chunk, sources, results, from, middle),
+                new ScoreTask(chunk, sources, results, middle, to)
+            );
+        }
+
+    }
+
+    private record ChunkResult(ResultPage[] results, int scoredCount) { }
+
+    public record Report(int relicCount, int scoredCount, long elapsedMillis) {
+
+        public double relicsPerSecond() {
+            return relicCount * 1000.0 / Math.max(1, elapsedMillis);
+        }
+
+    }
+
+}
@@ -0,0 +1,192 @@
+package ro.cofi.relicdb;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ro.cofi.relicdb.io.DBChoice;
+import ro.cofi.relicdb.io.DBFileManager;
+import ro.cofi.relicdb.scoring.AnalysisFilters;
+import ro.cofi.relicdb.scoring.AnalysisRecipe;
+import ro.cofi.relicdb.scoring.Score;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class CrossVersionAnalyzer {
+
+    private static final Logger LOGGER = LogManager.getLogger(CrossVersionAnalyzer.class);
+
+    // each worker holds at most one loaded version at a time, which bounds the memory used
+    private static final int MAX_PARALLEL_VERSIONS = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+    private final DBFileManager dbFileManager;
+
+    public CrossVersionAnalyzer(DBFileManager dbFileManager) {
+        this.dbFileManager = dbFileManager;
+    }
+
+    public Result analyzeAll(AnalysisRecipe recipe, AnalysisFilters filters) throws IOException {
+        return analyze(recipe, filters, dbFileManager.getStoredChoices());
+    }
+
+    public Result analyzeRange(
+        AnalysisRecipe recipe, AnalysisFilters filters, long fromTimestamp, long toTimestamp
+    ) throws IOException {
+        return analyze(recipe, filters, dbFileManager.getStoredChoices().stream()
+            .filter(choice -> choice.getLastModifiedTimestamp() >= fromTimestamp)
+            .filter(choice -> choice.getLastModifiedTimestamp() <= toTimestamp)
+            .toList());
+    }
+
+    public Result analyze(AnalysisRecipe recipe, AnalysisFilters filters, List<DBChoice> choices) throws IOException {
+        // the timeline goes from the oldest to the newest version
+        List<DBChoice> orderedChoices = choices.stream()
+            .filter(choice -> choice != DBChoice.DUMMY)
+            .sorted(Comparator.comparingLong(DBChoice::getLastModifiedTimestamp))
+            .toList();
+
+        long startTime = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(MAX_PARALLEL_VERSIONS);
+
+        List<VersionScores> timeline = new ArrayList<>(orderedChoices.size());
+
+        try {
+            List<Future<VersionScores>> futures = orderedChoices.stream()
+                .map(choice -> executor.submit(() -> scoreVersion(choice, recipe, filters)))
+                .toList();
+
+            for (Future<VersionScores> future : futures)
+                timeline.add(awaitVersion(future));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // versions which could not be loaded are left out, so their neighbours are compared directly
+        List<VersionScores> scoredVersions = timeline.stream().filter(version -> !version.isFailed()).toList();
+
+        List<VersionDiff> diffs = new ArrayList<>();
+        for (int i = 1; i < scoredVersions.size(); i++)
+            diffs.add(diff(scoredVersions.get(i - 1), scoredVersions.get(i)));
+
+        LOGGER.info(
+            "Analyzed {} versions in {} ms, {} failed",
+            timeline.size(), System.currentTimeMillis() - startTime, timeline.size() - scoredVersions.size()
+        );
+
+        return new Result(Collections.unmodifiableList(timeline), Collections.unmodifiableList(diffs));
+    }
+
+    // a version which cannot be loaded, like a delta whose base is gone, is recorded as failed instead
+    private VersionScores scoreVersion(DBChoice choice, AnalysisRecipe recipe, AnalysisFilters filters)
+        throws IOException {
+        LoadedDB loadedDB;
+        try {
+            // the loaded DB is only referenced here, so it can be collected as soon as it has been scored
+            loadedDB = dbFileManager.loadDBFile(choice, false);
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn(String.format("Could not load version %s, skipping it", choice), e);
+            return new VersionScores(choice, Collections.emptyMap(), describeFailure(e));
+        }
+
+        // a character can match through multiple options - keep its best score, in the sorted order
+        // names are not unique, so characters are told apart by their URL
+        Map<String, CharacterScore> scores = new LinkedHashMap<>();
+        for (Score score : loadedDB.getSortedScores(recipe, filters))
+            scores.putIfAbsent(
+                score.getCharacterURL(), new CharacterScore(score.getCharacter(), score.getTotalScore())
+            );
+
+        return new VersionScores(choice, Collections.unmodifiableMap(scores), null);
+    }
+
+    // the innermost cause says what actually went wrong, the outer ones only where
+    private static String describeFailure(Exception e) {
+        Throwable cause = e;
+        while (cause.getCause() != null)
+            cause = cause.getCause();
+
+        return Objects.requireNonNullElse(cause.getMessage(), cause.getClass().getSimpleName());
+    }
+
+    private VersionScores awaitVersion(Future<VersionScores> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while analyzing versions");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException)
+                throw ioException;
+
+            throw new IOException("Could not analyze version", e.getCause());
+        }
+    }
+
+    private VersionDiff diff(VersionScores from, VersionScores to) {
+        List<ScoreChange> changes = new ArrayList<>();
+
+        Set<String> characterURLs = new HashSet<>(from.scores().keySet());
+        characterURLs.addAll(to.scores().keySet());
+
+        for (String characterURL : characterURLs) {
+            CharacterScore oldScore = from.scores().get(characterURL);
+            CharacterScore newScore = to.scores().get(characterURL);
+
+            Integer oldTotal = oldScore != null ? oldScore.score() : null;
+            Integer newTotal = newScore != null ? newScore.score() : null;
+
+            if (!Objects.equals(oldTotal, newTotal)) {
+                String character = (newScore != null ? newScore : oldScore).character();
+                changes.add(new ScoreChange(characterURL, character, oldTotal, newTotal));
+            }
+        }
+
+        changes.sort(Comparator.comparing(ScoreChange::character).thenComparing(ScoreChange::characterURL));
+
+        return new VersionDiff(from.choice(), to.choice(), Collections.unmodifiableList(changes));
+    }
+
+    public record Result(List<VersionScores> timeline, List<VersionDiff> diffs) { }
+
+    // the scores of each matching character by its URL, from best to worst
+    // a version which could not be loaded has no scores, and the reason in its error
+    public record VersionScores(DBChoice choice, Map<String, CharacterScore> scores, String error) {
+
+        public boolean isFailed() {
+            return error != null;
+        }
+
+    }
+
+    public record CharacterScore(String character, int score) { }
+
+    public record VersionDiff(DBChoice from, DBChoice to, List<ScoreChange> changes) { }
+
+    // a null score means that the character did not match in that version
+    public record ScoreChange(String characterURL, String character, Integer oldScore, Integer newScore) {
+
+        public boolean isAdded() {
+            return oldScore == null;
+        }
+
+        public boolean isRemoved() {
+            return newScore == null;
+        }
+
+    }
+
+}
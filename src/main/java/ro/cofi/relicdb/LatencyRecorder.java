@@ -0,0 +1,61 @@
+package ro.cofi.relicdb;
+
+import org.apache.logging.log4j.Logger;
+
+import java.util.Arrays;
+
+// Collects latencies for reporting their percentiles - not thread-safe, record per thread and merge afterwards.
+class LatencyRecorder {
+
+    private long[] latencies = new long[64];
+    private int count;
+
+    void record(long nanos) {
+        if (count == latencies.length)
+            latencies = Arrays.copyOf(latencies, count * 2);
+
+        latencies[count++] = nanos;
+    }
+
+    void merge(LatencyRecorder other) {
+        for (int i = 0; i < other.count; i++)
+            record(other.latencies[i]);
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    Summary summarize() {
+        if (count == 0)
+            return new Summary(0, 0, 0, 0, 0);
+
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+
+        long total = 0;
+        for (long latency : sorted)
+            total += latency;
+
+        return new Summary(count, total, percentile(sorted, 0.5), percentile(sorted, 0.99), sorted[count - 1]);
+    }
+
+    void log(Logger logger, String what) {
+        if (count == 0)
+            return;
+
+        Summary summary = summarize();
+        logger.info(
+            "{} {} in {} ms - mean {} us, p50 {} us, p99 {} us, max {} us",
+            summary.count(), what, summary.totalNanos() / 1_000_000, summary.totalNanos() / summary.count() / 1000,
+            summary.p50Nanos() / 1000, summary.p99Nanos() / 1000, summary.maxNanos() / 1000
+        );
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1)];
+    }
+
+    record Summary(int count, long totalNanos, long p50Nanos, long p99Nanos, long maxNanos) { }
+
+}
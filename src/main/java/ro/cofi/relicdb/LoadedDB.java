@@ -1,207 +1,333 @@
 package ro.cofi.relicdb;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
 import ro.cofi.relicdb.io.DBChoice;
+import ro.cofi.relicdb.logic.RelicType;
 import ro.cofi.relicdb.logic.Stat;
+import ro.cofi.relicdb.model.CharacterEntry;
+import ro.cofi.relicdb.model.DBModel;
+import ro.cofi.relicdb.model.RecommendationIndex;
+import ro.cofi.relicdb.model.SetIndex;
+import ro.cofi.relicdb.model.SetPosting;
+import ro.cofi.relicdb.model.StatOptions;
 import ro.cofi.relicdb.scoring.AnalysisFilters;
 import ro.cofi.relicdb.scoring.AnalysisRecipe;
-import ro.cofi.relicdb.scoring.MainStatScore;
 import ro.cofi.relicdb.scoring.MainStatScoreType;
-import ro.cofi.relicdb.scoring.RankScore;
 import ro.cofi.relicdb.scoring.RankScoreType;
 import ro.cofi.relicdb.scoring.Score;
-import ro.cofi.relicdb.scoring.SubStatScore;
-import ro.cofi.relicdb.scoring.SubStatScoreType;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
-import java.util.Objects;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 public class LoadedDB {
 
-    private final JsonObject data;
+    public static final String NO_RESULTS_MESSAGE = "No results found. Try applying less restrictive filters.";
+
+    private static final int MAX_CACHED_RESULTS = 32;
+    private static final int MAX_CACHED_SCORES = 1 << 16;
+
+    // sort scores by score, then by character name
+    private static final Comparator<Score> SCORE_ORDER = Comparator.comparing(Score::getTotalScore).reversed()
+        .thenComparing(Score::getCharacter);
+
+    // sort keys pack the inverted score, the rank of the character name and the position of the score
+    private static final int SCORE_SHIFT = 56;
+    private static final int NAME_RANK_SHIFT = 32;
+
+    static {
+        if (Score.MAX_SCORE >= 1 << (Long.SIZE - 1 - SCORE_SHIFT))
+            throw new IllegalStateException("Scores do not fit in the sort keys");
+    }
+
+    private final DBModel model;
     private final DBChoice dbChoice;
+    private final AnalysisCache analysisCache = new AnalysisCache(MAX_CACHED_RESULTS, MAX_CACHED_SCORES);
 
-    public LoadedDB(JsonObject data, DBChoice dbChoice) {
-        this.data = data;
+    // indexed by character ID, equal names share a rank
+    private final int[] nameRanks;
+
+    public LoadedDB(DBModel model, DBChoice dbChoice) {
+        this.model = model;
         this.dbChoice = dbChoice;
+        this.nameRanks = computeNameRanks(model.getCharacters());
+    }
+
+    private static int[] computeNameRanks(List<CharacterEntry> characters) {
+        List<CharacterEntry> sortedCharacters = new ArrayList<>(characters);
+        sortedCharacters.sort(Comparator.comparing(CharacterEntry::name));
+
+        int[] nameRanks = new int[characters.size()];
+        int rank = 0;
+        for (int i = 0; i < sortedCharacters.size(); i++) {
+            if (i > 0 && !sortedCharacters.get(i).name().equals(sortedCharacters.get(i - 1).name()))
+                rank = i;
+
+            nameRanks[sortedCharacters.get(i).id()] = rank;
+        }
+
+        return nameRanks;
     }
 
     public DBChoice getDBChoice() {
         return dbChoice;
     }
 
-    public List<String> getWeaponNames(String jsonKey) {
-        return data.getAsJsonArray(jsonKey).asList().stream().map(JsonElement::getAsString).toList();
+    public DBModel getModel() {
+        return model;
+    }
+
+    public List<String> getWeaponNames(RelicType type) {
+        return model.getWeaponNames(type);
+    }
+
+    // the reverse query - what a character wants, rather than who wants a relic
+    public List<RecommendationIndex.CharacterRecommendations> getRecommendations(String characterName) {
+        return model.getRecommendationIndex().find(characterName);
     }
 
     public String analyzeItem(AnalysisRecipe recipe, AnalysisFilters filters) {
-        List<Score> scores = getScores(recipe, filters);
+        List<Score> scores = getSortedScores(recipe, filters);
 
         if (scores.isEmpty())
-            return "No results found. Try applying less restrictive filters.";
-
-        // sort scores by score, then by character name
-        scores.sort(Comparator.comparing(Score::getTotalScore).reversed().thenComparing(Score::getCharacter));
+            return NO_RESULTS_MESSAGE;
 
         return HTMLUtil.wrapInLineBreaks(scores.stream().map(Score::getDescription).toList());
     }
 
-    private List<Score> getScores(AnalysisRecipe recipe, AnalysisFilters filters) {
-        List<Score> scores = new ArrayList<>();
+    public List<Score> getSortedScores(AnalysisRecipe recipe, AnalysisFilters filters) {
+        List<Score> scores = analysisCache.get(recipe, filters);
+        if (scores != null)
+            return scores;
 
-        JsonArray characters = data.getAsJsonArray("characters");
-        List<Stat> ownedSubStats = Stream.of(
-            recipe.subStat1(),
-            recipe.subStat2(),
-            recipe.subStat3(),
-            recipe.subStat4()
-        ).filter(Objects::nonNull).toList();
+        List<Score> computedScores = getScores(recipe, filters);
+        computedScores.sort(SCORE_ORDER);
 
-        for (int i = 0; i < characters.size(); i++) {
-            JsonObject character = characters.get(i).getAsJsonObject();
+        scores = Collections.unmodifiableList(computedScores);
+        analysisCache.put(recipe, filters, scores);
 
-            MainStatScore mainStatScore = getMainStatScore(recipe, character);
-            if (mainStatScore != null && !filters.acceptMainStatScores().contains(mainStatScore.type()))
-                continue;
+        return scores;
+    }
 
-            List<SubStatScore> subStatScores = getSubStatScores(ownedSubStats, character);
-            int metSubStats = (int) subStatScores.stream()
-                .filter(subStatScore -> subStatScore.type() == SubStatScoreType.MET)
-                .count();
-            if (metSubStats < filters.subStatScoreFilter())
-                continue;
+    public List<Score> getTopScores(AnalysisRecipe recipe, AnalysisFilters filters, int count) {
+        return getPage(recipe, filters, 0, count).scores();
+    }
+
+    public ResultPage getPage(AnalysisRecipe recipe, AnalysisFilters filters, int offset, int limit) {
+        if (offset < 0 || limit < 1)
+            throw new IllegalArgumentException(String.format("Invalid page of %d results at %d", limit, offset));
 
-            String characterName = character.get("name").getAsString();
-            String characterURL = character.get("url").getAsString();
-            JsonArray weaponOptions = character.getAsJsonArray(recipe.type().getJsonKey());
+        List<Score> sortedScores = analysisCache.get(recipe, filters);
+        if (sortedScores != null)
+            return slice(sortedScores, offset, limit, sortedScores.size());
 
-            boolean found = false;
+        List<Score> scores = getScores(recipe, filters);
 
-            for (int j = 0; j < weaponOptions.size(); j++) {
-                JsonObject weaponOption = weaponOptions.get(j).getAsJsonObject();
+        // sort it all and keep it for later queries when everything is needed anyway, or when the query came back,
+        // like for the next page of the same results - otherwise, only the requested results are sorted
+        if ((long) offset + limit >= scores.size() || analysisCache.isRepeated(recipe, filters)) {
+            scores.sort(SCORE_ORDER);
 
-                JsonArray weaponSets = weaponOption.getAsJsonArray("sets");
+            sortedScores = Collections.unmodifiableList(scores);
+            analysisCache.put(recipe, filters, sortedScores);
 
-                int weaponSetCount = weaponSets.size();
-                int foundIndex;
-                for (foundIndex = 0; foundIndex < weaponSetCount; foundIndex++) {
-                    JsonObject weaponSet = weaponSets.get(foundIndex).getAsJsonObject();
+            return slice(sortedScores, offset, limit, sortedScores.size());
+        }
 
-                    String weaponSetName = weaponSet.get("name").getAsString();
+        return slice(selectTop(scores, offset + limit), offset, limit, scores.size());
+    }
 
-                    if (weaponSetName.equals(recipe.name()))
-                        break;
-                }
+    // bypasses the analysis cache, for bulk work where queries rarely repeat and many threads score at once
+    public ResultPage computeTopScores(AnalysisRecipe recipe, AnalysisFilters filters, int count) {
+        if (count < 1)
+            throw new IllegalArgumentException(String.format("Invalid number of results %d", count));
 
-                if (foundIndex == weaponSetCount)
-                    continue;
+        List<Score> scores = getScores(recipe, filters);
+        if (count >= scores.size()) {
+            scores.sort(SCORE_ORDER);
+            return new ResultPage(scores, 0, scores.size());
+        }
 
-                found = true;
+        return new ResultPage(selectTop(scores, count), 0, scores.size());
+    }
 
-                // we found a matching set, construct a score
-                RankScore rankScore = getRankScore(weaponOption, weaponSets, weaponSetCount, foundIndex);
-                if (!filters.acceptedRankScores().contains(rankScore.type()))
-                    continue;
+    private static ResultPage slice(List<Score> sortedScores, int offset, int limit, int totalCount) {
+        int from = Math.min(offset, sortedScores.size());
+        int to = (int) Math.min((long) offset + limit, sortedScores.size());
 
-                Score score = new Score(
-                    characterName, characterURL,
-                    rankScore, mainStatScore, subStatScores
-                );
+        return new ResultPage(sortedScores.subList(from, to), offset, totalCount);
+    }
 
-                scores.add(score);
+    // same order as SCORE_ORDER, ties are broken by position, like the stable sort does
+    private List<Score> selectTop(List<Score> scores, int count) {
+        long[] heap = new long[count];
+        int heapSize = 0;
+
+        // max-heap of the smallest keys seen so far
+        for (int i = 0; i < scores.size(); i++) {
+            Score score = scores.get(i);
+            long key = (long) (Score.MAX_SCORE - score.getTotalScore()) << SCORE_SHIFT
+                | (long) nameRanks[score.getCharacterId()] << NAME_RANK_SHIFT
+                | i;
+
+            if (heapSize < count) {
+                heap[heapSize] = key;
+                siftUp(heap, heapSize++);
+            } else if (key < heap[0]) {
+                heap[0] = key;
+                siftDown(heap, heapSize);
             }
+        }
 
-            if (found || !filters.acceptedRankScores().contains(RankScoreType.UNACCEPTABLE))
-                continue;
+        long[] keys = Arrays.copyOf(heap, heapSize);
+        Arrays.sort(keys);
 
-            // create a bad rank score
-            RankScore rankScore = new RankScore(RankScoreType.UNACCEPTABLE, null);
+        List<Score> topScores = new ArrayList<>(keys.length);
+        for (long key : keys)
+            topScores.add(scores.get((int) (key & 0xFFFFFFFFL)));
+
+        return topScores;
+    }
 
-            Score score = new Score(
-                characterName, characterURL,
-                rankScore, mainStatScore, subStatScores
-            );
+    private static void siftUp(long[] heap, int index) {
+        long key = heap[index];
 
-            scores.add(score);
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (heap[parent] >= key)
+                break;
+
+            heap[index] = heap[parent];
+            index = parent;
         }
 
-        return scores;
+        heap[index] = key;
     }
 
-    private RankScore getRankScore(
-        JsonObject weaponOption, JsonArray weaponSets, int weaponSetCount, int foundIndex
-    ) {
-        int rank = weaponOption.get("rank").getAsInt();
-        RankScoreType rankScoreType = rank == 1 ? RankScoreType.IDEAL : RankScoreType.ACCEPTABLE;
-        String otherSet = weaponSetCount == 1
-            ? null
-            : weaponSets.get(1 - foundIndex).getAsJsonObject().get("name").getAsString();
+    private static void siftDown(long[] heap, int size) {
+        long key = heap[0];
+        int index = 0;
+
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size)
+                break;
+
+            if (child + 1 < size && heap[child + 1] > heap[child])
+                child++;
 
-        return new RankScore(rankScoreType, otherSet);
+            if (heap[child] <= key)
+                break;
+
+            heap[index] = heap[child];
+            index = child;
+        }
+
+        heap[index] = key;
     }
 
-    private MainStatScore getMainStatScore(AnalysisRecipe recipe, JsonObject character) {
-        int foundIndex;
-        MainStatScore mainStatScore = null; // some relics have fixed main stats
+    private List<Score> getScores(AnalysisRecipe recipe, AnalysisFilters filters) {
+        List<Score> scores = new ArrayList<>();
+
+        long ownedSubStats = Stat.maskOf(
+            recipe.subStat1(),
+            recipe.subStat2(),
+            recipe.subStat3(),
+            recipe.subStat4()
+        );
+
+        // most characters can usually be ruled out before looking at any of them
+        AnalysisPlan plan = AnalysisPlan.build(model, recipe, filters, ownedSubStats);
+        if (!plan.hasCandidates())
+            return scores;
+
+        int setId = model.getSetId(recipe.name());
+        SetIndex setIndex = model.getSetIndex(recipe.type());
+
+        // characters that use the set - postings are grouped by character
+        SetPosting[] postings = setIndex.getPostings(setId);
+        int postingIndex = 0;
 
-        String jsonKey = recipe.part().getJsonKey();
-        if (jsonKey != null) {
-            JsonObject mainStatsObject = character.getAsJsonObject("mainStats");
-            String mainStatOptionsRaw = mainStatsObject.get(jsonKey).getAsString();
-            String[] mainStatOptions = mainStatOptionsRaw.split(" / ");
+        while (postingIndex < postings.length) {
+            int characterId = postings[postingIndex].characterId();
 
-            int mainStatCount = mainStatOptions.length;
-            for (foundIndex = 0; foundIndex < mainStatCount; foundIndex++) {
-                String mainStatOption = mainStatOptions[foundIndex];
+            int postingEnd = postingIndex;
+            while (postingEnd < postings.length && postings[postingEnd].characterId() == characterId)
+                postingEnd++;
 
-                if (recipe.mainStat().matches(mainStatOption))
-                    break;
+            if (!plan.isCandidate(characterId)) {
+                postingIndex = postingEnd;
+                continue;
             }
 
-            MainStatScoreType mainStatScoreType = foundIndex == mainStatCount
-                ? MainStatScoreType.UNACCEPTABLE
-                : MainStatScoreType.IDEAL;
-
-            String otherMainStat = null;
-            if (mainStatScoreType == MainStatScoreType.UNACCEPTABLE) {
-                otherMainStat = mainStatOptionsRaw;
-            } else if (mainStatCount > 1) {
-                // concatenate all options except the one we found
-                otherMainStat = Arrays.stream(mainStatOptions)
-                    .filter(mainStatOption -> !mainStatOption.equals(recipe.mainStat().toString()))
-                    .collect(Collectors.joining(" / "));
+            CharacterEntry character = model.getCharacter(characterId);
+
+            for (int i = postingIndex; i < postingEnd; i++) {
+                // we found a matching set, construct a score
+                SetPosting posting = postings[i];
+                RankScoreType rankScoreType = posting.rank() == 1 ? RankScoreType.IDEAL : RankScoreType.ACCEPTABLE;
+                if (!filters.acceptedRankScores().contains(rankScoreType))
+                    continue;
+
+                String otherSet = posting.otherSetId() == DBModel.UNKNOWN_SET
+                    ? null
+                    : model.getSetName(posting.otherSetId());
+
+                addScore(scores, character, rankScoreType, otherSet, recipe, ownedSubStats, filters);
             }
 
-            mainStatScore = new MainStatScore(mainStatScoreType, otherMainStat);
+            postingIndex = postingEnd;
         }
-        return mainStatScore;
-    }
 
-    private List<SubStatScore> getSubStatScores(List<Stat> ownedSubStats, JsonObject character) {
-        JsonArray subStatsObject = character.getAsJsonArray("subStats");
+        if (!filters.acceptedRankScores().contains(RankScoreType.UNACCEPTABLE))
+            return scores;
 
-        List<SubStatScore> subStatScores = new ArrayList<>();
+        // characters that do not use the set at all
+        BitSet coverage = setIndex.getCoverage(setId);
+        int characterCount = model.getCharacters().size();
 
-        for (int k = 0; k < subStatsObject.size(); k++) {
-            String subStatRaw = subStatsObject.get(k).getAsString();
-            String[] subStats = subStatRaw.split(" / ");
+        for (int id = plan.nextCandidate(0, characterCount); id >= 0; id = plan.nextCandidate(id + 1, characterCount)) {
+            if (coverage.get(id))
+                continue;
+
+            // create a bad rank score
+            addScore(scores, model.getCharacter(id), RankScoreType.UNACCEPTABLE, null, recipe, ownedSubStats, filters);
+        }
+
+        return scores;
+    }
 
-            boolean match = ownedSubStats.stream().anyMatch(ownedSubStat ->
-                Arrays.stream(subStats).anyMatch(ownedSubStat::matches)
-            );
+    private void addScore(
+        List<Score> scores, CharacterEntry character, RankScoreType rankScoreType, String otherSet,
+        AnalysisRecipe recipe, long ownedSubStats, AnalysisFilters filters
+    ) {
+        StatOptions mainStatOptions = character.getMainStats(recipe.part());
+        MainStatScoreType mainStatScoreType = getMainStatScoreType(recipe, mainStatOptions);
+        if (mainStatScoreType != null && !filters.acceptMainStatScores().contains(mainStatScoreType))
+            return;
+
+        long metSubStatLines = character.getMetSubStatLines(ownedSubStats);
+        if (Long.bitCount(metSubStatLines) < filters.subStatScoreFilter())
+            return;
+
+        // the score only references what matched, its description is rendered when displayed
+        scores.add(new Score(
+            character,
+            rankScoreType, otherSet,
+            mainStatScoreType, mainStatOptions, recipe.mainStat(),
+            metSubStatLines
+        ));
+    }
 
-            SubStatScoreType subStatScoreType = match ? SubStatScoreType.MET : SubStatScoreType.UNMET;
+    private MainStatScoreType getMainStatScoreType(AnalysisRecipe recipe, StatOptions mainStatOptions) {
+        if (mainStatOptions == null) // some relics have fixed main stats
+            return null;
 
-            subStatScores.add(new SubStatScore(subStatScoreType, subStatRaw));
-        }
-        return subStatScores;
+        return mainStatOptions.contains(recipe.mainStat())
+            ? MainStatScoreType.IDEAL
+            : MainStatScoreType.UNACCEPTABLE;
     }
 
 }
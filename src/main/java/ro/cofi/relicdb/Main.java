@@ -3,7 +3,11 @@ package ro.cofi.relicdb;
 public class Main {
 
     public static void main(String[] args) {
-        RelicDBApplication.main(args);
+        // any arguments mean a headless run, which must not start JavaFX
+        if (args.length > 0)
+            RelicDBCLI.main(args);
+        else
+            RelicDBApplication.main(args);
     }
 
 }
@@ -0,0 +1,25 @@
+package ro.cofi.relicdb;
+
+public enum OutputFormat {
+    JSON_LINES("jsonl"),
+    TEXT("text");
+
+    private final String id;
+
+    OutputFormat(String id) {
+        this.id = id;
+    }
+
+    public static OutputFormat fromId(String id) {
+        for (OutputFormat format : values())
+            if (format.id.equalsIgnoreCase(id))
+                return format;
+
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return id;
+    }
+}
@@ -0,0 +1,151 @@
+package ro.cofi.relicdb;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ro.cofi.relicdb.logic.Stat;
+import ro.cofi.relicdb.scoring.AnalysisRecipe;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Replays the relics of an inventory against a running query server, from several threads at once.
+// A tenth of the requests warm the server up first, and are left out of the report.
+public class QueryLoadTest {
+
+    private static final Logger LOGGER = LogManager.getLogger(QueryLoadTest.class);
+
+    private static final int WARMUP_DIVISOR = 10;
+    private static final int TIMEOUT_MILLIS = 10_000;
+
+    private final URI serverURI;
+    private final int threads;
+
+    public QueryLoadTest(URI serverURI, int threads) {
+        this.serverURI = serverURI;
+        this.threads = threads;
+    }
+
+    public Report run(List<AnalysisRecipe> relics, int requestCount, int limit) throws IOException {
+        if (relics.isEmpty())
+            throw new IllegalArgumentException("There are no relics to send");
+
+        List<URI> requests = relics.stream().map(relic -> toURI(relic, limit)).toList();
+
+        send(requests, requestCount / WARMUP_DIVISOR);
+        Report report = send(requests, requestCount);
+
+        LOGGER.info(
+            "{} requests on {} threads in {} ms - {} requests/s, p50 {} us, p99 {} us, max {} us, {} errors",
+            report.requestCount(), threads, report.elapsedMillis(), String.format("%.0f", report.requestsPerSecond()),
+            report.p50Nanos() / 1000, report.p99Nanos() / 1000, report.maxNanos() / 1000, report.errorCount()
+        );
+
+        return report;
+    }
+
+    private Report send(List<URI> requests, int requestCount) throws IOException {
+        AtomicInteger nextRequest = new AtomicInteger();
+        AtomicInteger errorCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        long startTime = System.nanoTime();
+        LatencyRecorder latencies = new LatencyRecorder();
+
+        try {
+            List<Future<LatencyRecorder>> workers = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++)
+                workers.add(executor.submit(() -> {
+                    // recorded per thread, merged at the end
+                    LatencyRecorder workerLatencies = new LatencyRecorder();
+
+                    for (int index = nextRequest.getAndIncrement(); index < requestCount;
+                         index = nextRequest.getAndIncrement()) {
+                        long requestStart = System.nanoTime();
+                        if (!get(requests.get(index % requests.size())))
+                            errorCount.incrementAndGet();
+
+                        workerLatencies.record(System.nanoTime() - requestStart);
+                    }
+
+                    return workerLatencies;
+                }));
+
+            for (Future<LatencyRecorder> worker : workers)
+                latencies.merge(worker.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while sending requests");
+        } catch (ExecutionException e) {
+            throw new IOException("Could not send requests", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        LatencyRecorder.Summary summary = latencies.summarize();
+        return new Report(
+            summary.count(), errorCount.get(), (System.nanoTime() - startTime) / 1_000_000,
+            summary.p50Nanos(), summary.p99Nanos(), summary.maxNanos()
+        );
+    }
+
+    private boolean get(URI uri) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) uri.toURL().openConnection();
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+
+            int status = connection.getResponseCode();
+
+            // the body has to be read fully for the connection to be kept alive
+            try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                if (in != null)
+                    in.transferTo(OutputStream.nullOutputStream());
+            }
+
+            return status == 200;
+        } catch (IOException e) {
+            LOGGER.debug(String.format("Request to %s failed", uri), e);
+            return false;
+        }
+    }
+
+    private URI toURI(AnalysisRecipe relic, int limit) {
+        String subStats = Stream.of(relic.subStat1(), relic.subStat2(), relic.subStat3(), relic.subStat4())
+            .filter(Objects::nonNull)
+            .map(Stat::name)
+            .collect(Collectors.joining(","));
+
+        return serverURI.resolve(String.format(
+            "/analyze?type=%s&part=%s&set=%s&mainStat=%s&subStats=%s&limit=%d",
+            relic.type().name(), relic.part().name(), URLEncoder.encode(relic.name(), StandardCharsets.UTF_8),
+            relic.mainStat().name(), subStats, limit
+        ));
+    }
+
+    public record Report(
+        int requestCount, int errorCount, long elapsedMillis, long p50Nanos, long p99Nanos, long maxNanos
+    ) {
+
+        public double requestsPerSecond() {
+            return requestCount * 1000.0 / Math.max(1, elapsedMillis);
+        }
+
+    }
+
+}
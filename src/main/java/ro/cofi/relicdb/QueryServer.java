@@ -0,0 +1,312 @@
+package ro.cofi.relicdb;
+
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ro.cofi.relicdb.io.ChoiceChanges;
+import ro.cofi.relicdb.io.DBChoice;
+import ro.cofi.relicdb.io.DBFileManager;
+import ro.cofi.relicdb.io.InventoryReader;
+import ro.cofi.relicdb.model.RecommendationIndex;
+import ro.cofi.relicdb.scoring.AnalysisFilters;
+import ro.cofi.relicdb.scoring.AnalysisRecipe;
+import ro.cofi.relicdb.scoring.MainStatScoreType;
+import ro.cofi.relicdb.scoring.RankScoreType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+// Answers queries from other local tools, over HTTP on the loopback interface only.
+// Each request reads the served DB once, so a reload swaps it without blocking or tearing the requests in flight.
+// Responses are JSON lines, and name the version which answered them in the X-RelicDB-Version header.
+public class QueryServer {
+
+    private static final Logger LOGGER = LogManager.getLogger(QueryServer.class);
+
+    private static final String VERSION_HEADER = "X-RelicDB-Version";
+    private static final String CONTENT_TYPE = "application/x-ndjson; charset=utf-8";
+    private static final int BACKLOG = 128;
+    private static final int DEFAULT_LIMIT = 10;
+    private static final int MAX_LIMIT = 1000;
+
+    private final AtomicReference<LoadedDB> servedDB = new AtomicReference<>();
+    private final HttpServer server;
+    private final ExecutorService requestExecutor;
+    private final ExecutorService reloadExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "query-server-reload");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // set once following starts, read by stop() and the reload thread
+    private volatile Consumer<ChoiceChanges> followListener;
+    private volatile DBFileManager followedManager;
+
+    public QueryServer(int port, int threads) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        requestExecutor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "query-server-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(requestExecutor);
+
+        server.createContext("/analyze", exchange -> handle(exchange, this::analyze));
+        server.createContext("/recommend", exchange -> handle(exchange, this::recommend));
+        server.createContext("/versions", exchange -> handle(exchange, this::versions));
+    }
+
+    public void start() {
+        server.start();
+        LOGGER.info("Query server listening on http://{}:{}", server.getAddress().getHostString(), getPort());
+    }
+
+    public void stop() {
+        DBFileManager manager = followedManager;
+        if (manager != null)
+            manager.removeDirectoryListener(followListener);
+
+        server.stop(0);
+        requestExecutor.shutdownNow();
+        reloadExecutor.shutdownNow();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public LoadedDB getLoadedDB() {
+        return servedDB.get();
+    }
+
+    // requests which already started keep the DB they read
+    public void setLoadedDB(LoadedDB loadedDB) {
+        LoadedDB previous = servedDB.getAndSet(loadedDB);
+
+        if (previous == null || !previous.getDBChoice().equals(loadedDB.getDBChoice()))
+            LOGGER.info("Serving \"{}\"", loadedDB.getDBChoice());
+    }
+
+    // serve the newest stored version, and switch to each newer one as it is stored
+    // newer versions are only noticed while the manager's directory monitor runs
+    // the served version being deleted or modified also moves on to the newest one left
+    public void followStoredVersions(DBFileManager dbFileManager) {
+        if (followedManager != null)
+            throw new IllegalStateException("Already following stored versions");
+
+        Consumer<ChoiceChanges> listener = changes -> {
+            LoadedDB current = servedDB.get();
+            boolean servedRemoved = current != null && changes.removed().contains(current.getDBChoice());
+
+            if (!changes.added().isEmpty() || servedRemoved)
+                reloadExecutor.execute(this::loadNewestVersion);
+        };
+
+        // the listener first, so that stop() never sees the manager without it
+        followListener = listener;
+        followedManager = dbFileManager;
+
+        dbFileManager.addDirectoryListener(listener);
+        reloadExecutor.execute(this::loadNewestVersion);
+    }
+
+    private void loadNewestVersion() {
+        DBFileManager manager = followedManager;
+        List<DBChoice> choices = manager.getStoredChoices();
+        if (choices.isEmpty()) {
+            LOGGER.warn("There are no stored versions left, still serving the previous one");
+            return;
+        }
+
+        DBChoice newest = choices.get(0);
+        LoadedDB current = servedDB.get();
+        if (current != null && current.getDBChoice().equals(newest))
+            return;
+
+        try {
+            // loaded off the request threads, which keep answering from the previous version meanwhile
+            setLoadedDB(manager.loadDBFile(newest));
+        } catch (IOException e) {
+            LOGGER.error(String.format("Could not load version %s, still serving the previous one", newest), e);
+        }
+    }
+
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                respond(exchange, 405, null, error("Only GET requests are supported"));
+                return;
+            }
+
+            // exact paths only, contexts would also match anything below them
+            if (!exchange.getRequestURI().getPath().equals(exchange.getHttpContext().getPath())) {
+                respond(exchange, 404, null, error("Unknown endpoint"));
+                return;
+            }
+
+            LoadedDB loadedDB = servedDB.get();
+            if (loadedDB == null) {
+                respond(exchange, 503, null, error("No DB version is loaded yet"));
+                return;
+            }
+
+            try {
+                Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+                StringWriter body = new StringWriter();
+                handler.handle(loadedDB, parameters, new ResultWriter(body, OutputFormat.JSON_LINES));
+
+                respond(exchange, 200, loadedDB, body.toString());
+            } catch (IllegalArgumentException e) {
+                respond(exchange, 400, loadedDB, error(e.getMessage()));
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error(String.format("Could not answer %s", exchange.getRequestURI()), e);
+            throw e;
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void analyze(LoadedDB loadedDB, Map<String, String> parameters, ResultWriter writer) throws IOException {
+        String subStats = parameters.getOrDefault("subStats", "");
+
+        AnalysisRecipe recipe = InventoryReader.parseRelic(
+            parameters.get("type"), parameters.get("part"), parameters.get("set"), parameters.get("mainStat"),
+            subStats.isEmpty() ? List.of() : Arrays.asList(subStats.split(","))
+        );
+        AnalysisFilters filters = new AnalysisFilters(
+            parseEnum(RankScoreType.class, parameters, "rank", RankScoreType.ACCEPTABLE).getHigherScores(),
+            parseEnum(MainStatScoreType.class, parameters, "mainStatScore", MainStatScoreType.IDEAL).getHigherScores(),
+            parseCount(parameters, "minSubStats", 0, 0)
+        );
+
+        int offset = parseCount(parameters, "offset", 0, 0);
+        int limit = parseCount(parameters, "limit", DEFAULT_LIMIT, 1);
+        if (limit > MAX_LIMIT)
+            throw new IllegalArgumentException(String.format("limit must be at most %d", MAX_LIMIT));
+
+        writer.writeRelic(0, recipe, loadedDB.getPage(recipe, filters, offset, limit));
+    }
+
+    private void recommend(LoadedDB loadedDB, Map<String, String> parameters, ResultWriter writer) throws IOException {
+        String character = parameters.get("character");
+        if (character == null)
+            throw new IllegalArgumentException("Missing the character");
+
+        // an unknown character is an empty answer, not an error
+        for (RecommendationIndex.CharacterRecommendations recommendations : loadedDB.getRecommendations(character))
+            writer.writeRecommendations(recommendations);
+    }
+
+    private void versions(LoadedDB loadedDB, Map<String, String> parameters, ResultWriter writer) throws IOException {
+        DBFileManager manager = followedManager;
+        if (manager == null) {
+            writer.writeVersion(loadedDB.getDBChoice());
+            return;
+        }
+
+        for (DBChoice choice : manager.getStoredChoices())
+            writer.writeVersion(choice);
+    }
+
+    private static void respond(HttpExchange exchange, int status, LoadedDB loadedDB, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+        if (loadedDB != null)
+            exchange.getResponseHeaders().set(VERSION_HEADER, loadedDB.getDBChoice().getFile().getName());
+
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String error(String message) {
+        StringWriter body = new StringWriter();
+
+        try (JsonWriter writer = new JsonWriter(body)) {
+            writer.beginObject().name("error").value(message).endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write to a string", e);
+        }
+
+        return body + "\n";
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty())
+            return parameters;
+
+        for (String pair : rawQuery.split("&")) {
+            int separator = pair.indexOf('=');
+            String name = separator < 0 ? pair : pair.substring(0, separator);
+            String value = separator < 0 ? "" : pair.substring(separator + 1);
+
+            parameters.put(
+                URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8)
+            );
+        }
+
+        return parameters;
+    }
+
+    private static int parseCount(Map<String, String> parameters, String name, int defaultValue, int minimum) {
+        String value = parameters.get(name);
+        if (value == null)
+            return defaultValue;
+
+        try {
+            int count = Integer.parseInt(value);
+            if (count >= minimum)
+                return count;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+
+        throw new IllegalArgumentException(String.format("%s must be a number of at least %d", name, minimum));
+    }
+
+    private static <E extends Enum<E>> E parseEnum(
+        Class<E> enumClass, Map<String, String> parameters, String name, E defaultValue
+    ) {
+        String value = parameters.get(name);
+        if (value == null)
+            return defaultValue;
+
+        try {
+            return Enum.valueOf(enumClass, value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format(
+                "%s must be one of %s", name, Arrays.toString(enumClass.getEnumConstants())
+            ));
+        }
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+
+        void handle(LoadedDB loadedDB, Map<String, String> parameters, ResultWriter writer) throws IOException;
+
+    }
+
+}
@@ -15,21 +15,36 @@ public class RelicDBApplication extends Application {
         Objects.requireNonNull(RelicDBApplication.class.getResourceAsStream("icon_32.png"))
     );
 
+    // started before JavaFX, so that the newest DB loads while the toolkit and the window come up
+    private static StartupPipeline startup;
+
     @Override
     public void start(Stage stage) throws IOException {
+        if (startup == null)
+            startup = StartupPipeline.start();
+
+        long startTime = System.nanoTime();
+
         FXMLLoader fxmlLoader = new FXMLLoader(RelicDBApplication.class.getResource("main-view.fxml"));
+        fxmlLoader.setControllerFactory(type -> new RelicDBController(startup));
         Scene scene = new Scene(fxmlLoader.load());
 
         RelicDBController controller = fxmlLoader.getController();
         stage.setOnHiding(event -> controller.shutdown());
 
+        StartupPipeline.logPhase("scene construction", startTime);
+        startTime = System.nanoTime();
+
         stage.getIcons().add(ICON);
         stage.setTitle("RelicDB");
         stage.setScene(scene);
         stage.show();
+
+        StartupPipeline.logPhase("window show", startTime);
     }
 
     public static void main(String[] args) {
+        startup = StartupPipeline.start();
         launch();
     }
 }
\ No newline at end of file
@@ -0,0 +1,441 @@
+package ro.cofi.relicdb;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ro.cofi.relicdb.io.DBChoice;
+import ro.cofi.relicdb.io.DBFileManager;
+import ro.cofi.relicdb.io.InventoryReader;
+import ro.cofi.relicdb.model.RecommendationIndex;
+import ro.cofi.relicdb.scoring.AnalysisFilters;
+import ro.cofi.relicdb.scoring.AnalysisRecipe;
+import ro.cofi.relicdb.scoring.MainStatScoreType;
+import ro.cofi.relicdb.scoring.RankScoreType;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+// Runs analyses without starting JavaFX, for scripts and scheduled jobs - nothing here may load a javafx class.
+// Results go to the standard output, while logs and timings go to the standard error.
+public class RelicDBCLI {
+
+    private static final String CONSOLE_TARGET_PROPERTY = "relicdb.consoleTarget";
+    private static final String NO_DELAY_PROPERTY = "sun.net.httpserver.nodelay";
+
+    static {
+        // must happen before the first logger is created
+        System.setProperty(CONSOLE_TARGET_PROPERTY, "SYSTEM_ERR");
+    }
+
+    private static final Logger LOGGER = LogManager.getLogger(RelicDBCLI.class);
+
+    private static final int EXIT_OK = 0;
+    private static final int EXIT_FAILED = 1;
+    private static final int EXIT_USAGE = 2;
+
+    private static final int DEFAULT_LIMIT = 10;
+    private static final int DEFAULT_PORT = 7878;
+    private static final int DEFAULT_REQUESTS = 10_000;
+
+    private static final String USAGE = """
+        Usage: relicdb [options] <command> [arguments]
+
+        Commands:
+          query [relic...]            analyze relics given as CSV rows, or read them from stdin, one per line
+          batch <inventory> <output>  analyze a CSV or JSON inventory in parallel, writing the results to a file
+          recommend <character...>    show the sets, main stats and substats the characters want
+          history <relic>             analyze a relic against every stored version
+          versions                    list the stored versions, newest first
+          serve                       answer queries over HTTP on localhost until stopped
+          loadtest <inventory>        send the relics of an inventory to a running server, and report its latency
+
+        Relics are CSV rows of type,part,set,mainStat[,subStat...], using IDs or display names.
+
+        Options:
+          --db <file>                               the DB file to load, the newest stored version by default
+          --format <jsonl|text>                     jsonl by default
+          --limit <count>                           results per relic, %d by default
+          --rank <IDEAL|ACCEPTABLE|UNACCEPTABLE>    the lowest set rank to accept, ACCEPTABLE by default
+          --main-stat <IDEAL|UNACCEPTABLE>          the lowest main stat score to accept, IDEAL by default
+          --substats <count>                        the lowest number of met substats to accept, 0 by default
+          --threads <count>                         batch, server or load test threads, one per core by default
+          --port <port>                             the server port, %d by default
+          --url <url>                               the server to load test, http://localhost:<port> by default
+          --requests <count>                        load test requests, %d by default
+        """.formatted(DEFAULT_LIMIT, DEFAULT_PORT, DEFAULT_REQUESTS);
+
+    private final Options options;
+    private final DBFileManager dbFileManager = new DBFileManager();
+    private final ResultWriter writer;
+
+    private RelicDBCLI(Options options) {
+        this.options = options;
+        this.writer = new ResultWriter(
+            new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)), options.format()
+        );
+    }
+
+    public static void main(String[] args) {
+        int exitCode;
+
+        try {
+            exitCode = new RelicDBCLI(Options.parse(args)).run();
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println();
+            System.err.print(USAGE);
+            exitCode = EXIT_USAGE;
+        }
+
+        System.exit(exitCode);
+    }
+
+    private int run() {
+        try {
+            return switch (options.command()) {
+                case "query" -> query();
+                case "batch" -> batch();
+                case "recommend" -> recommend();
+                case "history" -> history();
+                case "versions" -> versions();
+                case "serve" -> serve();
+                case "loadtest" -> loadTest();
+                default -> throw new IllegalArgumentException(String.format("Unknown command %s", options.command()));
+            };
+        } catch (IOException e) {
+            LOGGER.error(String.format("Command %s failed", options.command()), e);
+            return EXIT_FAILED;
+        } finally {
+            dbFileManager.shutdown();
+        }
+    }
+
+    private int query() throws IOException {
+        QuerySession session = new QuerySession(loadDB());
+
+        if (!options.arguments().isEmpty()) {
+            for (int i = 0; i < options.arguments().size(); i++)
+                session.query(i + 1, options.arguments().get(i));
+
+            writer.flush();
+        } else {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            String line;
+
+            for (int lineNumber = 1; (line = reader.readLine()) != null; lineNumber++) {
+                session.query(lineNumber, line);
+
+                // only flush once the input runs dry, so piped bulk queries are not written line by line
+                if (!reader.ready())
+                    writer.flush();
+            }
+
+            writer.flush();
+        }
+
+        session.latencies.log(LOGGER, "queries");
+        return session.failures == 0 ? EXIT_OK : EXIT_FAILED;
+    }
+
+    private int batch() throws IOException {
+        List<String> arguments = requireArguments(2, "batch needs an inventory and an output file");
+
+        LoadedDB loadedDB = loadDB();
+        List<AnalysisRecipe> relics = InventoryReader.read(Path.of(arguments.get(0)));
+
+        new BatchAnalyzer(loadedDB, options.filters(), options.limit(), options.threads())
+            .analyze(relics, Path.of(arguments.get(1)), options.format());
+
+        return EXIT_OK;
+    }
+
+    private int recommend() throws IOException {
+        List<String> characters = requireArguments(-1, "recommend needs at least one character name");
+
+        LoadedDB loadedDB = loadDB();
+        LatencyRecorder latencies = new LatencyRecorder();
+        int failures = 0;
+
+        for (String character : characters) {
+            long startTime = System.nanoTime();
+            List<RecommendationIndex.CharacterRecommendations> recommendations = loadedDB.getRecommendations(character);
+            latencies.record(System.nanoTime() - startTime);
+
+            if (recommendations.isEmpty()) {
+                LOGGER.warn("No character named \"{}\" in \"{}\"", character, loadedDB.getDBChoice());
+                failures++;
+            }
+
+            for (RecommendationIndex.CharacterRecommendations characterRecommendations : recommendations)
+                writer.writeRecommendations(characterRecommendations);
+        }
+
+        writer.flush();
+        latencies.log(LOGGER, "queries");
+
+        return failures == 0 ? EXIT_OK : EXIT_FAILED;
+    }
+
+    private int history() throws IOException {
+        List<String> arguments = requireArguments(1, "history needs exactly one relic");
+
+        AnalysisRecipe recipe = InventoryReader.parseCSVRow(arguments.get(0));
+        if (recipe == null)
+            throw new IllegalArgumentException("history needs a relic, not a header");
+
+        CrossVersionAnalyzer.Result result = new CrossVersionAnalyzer(dbFileManager)
+            .analyzeAll(recipe, options.filters());
+
+        for (CrossVersionAnalyzer.VersionScores versionScores : result.timeline())
+            writer.writeVersionScores(versionScores, options.limit());
+
+        for (CrossVersionAnalyzer.VersionDiff diff : result.diffs())
+            writer.writeVersionDiff(diff);
+
+        writer.flush();
+        return EXIT_OK;
+    }
+
+    private int versions() throws IOException {
+        requireArguments(0, "versions takes no arguments");
+
+        for (DBChoice choice : dbFileManager.getStoredChoices())
+            writer.writeVersion(choice);
+
+        writer.flush();
+        return EXIT_OK;
+    }
+
+    private int serve() throws IOException {
+        requireArguments(0, "serve takes no arguments");
+
+        // headers and body are written separately, so Nagle's algorithm would hold every small response back ~40 ms
+        // read once, when the first server is created, so it has to be set before that
+        if (System.getProperty(NO_DELAY_PROPERTY) == null)
+            System.setProperty(NO_DELAY_PROPERTY, "true");
+
+        QueryServer server = new QueryServer(options.port(), options.threads());
+
+        if (options.dbFile() != null) {
+            server.setLoadedDB(loadDB());
+        } else {
+            // until a version is stored, queries are answered with 503
+            if (dbFileManager.getStoredChoices().isEmpty())
+                LOGGER.warn("There are no stored versions yet, waiting for one");
+
+            dbFileManager.initDirectoryMonitor();
+            server.followStoredVersions(dbFileManager);
+        }
+
+        server.start();
+
+        // serve until the process is stopped
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            stopped.countDown();
+        }, "query-server-shutdown"));
+
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        return EXIT_OK;
+    }
+
+    private int loadTest() throws IOException {
+        List<String> arguments = requireArguments(1, "loadtest needs an inventory");
+
+        List<AnalysisRecipe> relics = InventoryReader.read(Path.of(arguments.get(0)));
+        URI serverURI = URI.create(options.url() != null ? options.url() : "http://localhost:" + options.port());
+
+        QueryLoadTest.Report report = new QueryLoadTest(serverURI, options.threads())
+            .run(relics, options.requests(), options.limit());
+
+        return report.errorCount() == 0 ? EXIT_OK : EXIT_FAILED;
+    }
+
+    // a negative count means at least one
+    private List<String> requireArguments(int count, String message) {
+        List<String> arguments = options.arguments();
+
+        if (count < 0 ? arguments.isEmpty() : arguments.size() != count)
+            throw new IllegalArgumentException(message);
+
+        return arguments;
+    }
+
+    private LoadedDB loadDB() throws IOException {
+        DBChoice choice;
+
+        if (options.dbFile() != null) {
+            File file = new File(options.dbFile());
+            if (!file.isFile())
+                throw new IOException(String.format("DB file %s does not exist", file));
+
+            choice = new DBChoice(file, file.lastModified());
+        } else {
+            List<DBChoice> choices = dbFileManager.getStoredChoices();
+            if (choices.isEmpty())
+                throw new IOException("There are no stored versions, use --db to choose a DB file");
+
+            choice = choices.get(0);
+        }
+
+        long startTime = System.nanoTime();
+        LoadedDB loadedDB = dbFileManager.loadDBFile(choice, false);
+
+        LOGGER.info(
+            "Loaded \"{}\" with {} characters in {} ms, ready {} ms after the JVM started",
+            choice, loadedDB.getModel().getCharacters().size(), (System.nanoTime() - startTime) / 1_000_000,
+            ProcessHandle.current().info().startInstant()
+                .map(jvmStart -> Duration.between(jvmStart, Instant.now()).toMillis())
+                .orElse(-1L)
+        );
+
+        return loadedDB;
+    }
+
+    // relics are numbered like in a batch, skipping headers and invalid rows
+    private class QuerySession {
+
+        private final LoadedDB loadedDB;
+        private final LatencyRecorder latencies = new LatencyRecorder();
+
+        private int relicCount;
+        private int failures;
+
+        QuerySession(LoadedDB loadedDB) {
+            this.loadedDB = loadedDB;
+        }
+
+        void query(int rowNumber, String row) throws IOException {
+            AnalysisRecipe recipe;
+            try {
+                recipe = InventoryReader.parseCSVRow(row);
+            } catch (IllegalArgumentException e) {
+                LOGGER.warn("Skipping invalid relic on row {}: {}", rowNumber, e.getMessage());
+                failures++;
+                return;
+            }
+
+            // headers and blank rows
+            if (recipe == null)
+                return;
+
+            long startTime = System.nanoTime();
+            ResultPage page = loadedDB.getPage(recipe, options.filters(), 0, options.limit());
+            latencies.record(System.nanoTime() - startTime);
+
+            writer.writeRelic(relicCount++, recipe, page);
+        }
+
+    }
+
+    private record Options(
+        String command, List<String> arguments, String dbFile, OutputFormat format, int limit, AnalysisFilters filters,
+        int threads, int port, String url, int requests
+    ) {
+
+        static Options parse(String[] args) {
+            String dbFile = null;
+            OutputFormat format = OutputFormat.JSON_LINES;
+            int limit = DEFAULT_LIMIT;
+            RankScoreType rank = RankScoreType.ACCEPTABLE;
+            MainStatScoreType mainStat = MainStatScoreType.IDEAL;
+            int subStats = 0;
+            int threads = Runtime.getRuntime().availableProcessors();
+            int port = DEFAULT_PORT;
+            String url = null;
+            int requests = DEFAULT_REQUESTS;
+
+            List<String> positional = new ArrayList<>();
+            for (int i = 0; i < args.length; i++) {
+                if (!args[i].startsWith("--")) {
+                    positional.add(args[i]);
+                    continue;
+                }
+
+                if (i + 1 == args.length)
+                    throw new IllegalArgumentException(String.format("Missing the value of %s", args[i]));
+
+                String option = args[i];
+                String value = args[++i];
+
+                switch (option) {
+                    case "--db" -> dbFile = value;
+                    case "--format" -> {
+                        format = OutputFormat.fromId(value);
+                        if (format == null)
+                            throw new IllegalArgumentException(String.format("Unknown format %s", value));
+                    }
+                    case "--limit" -> limit = parsePositive(option, value);
+                    case "--rank" -> rank = parseEnum(RankScoreType.class, option, value);
+                    case "--main-stat" -> mainStat = parseEnum(MainStatScoreType.class, option, value);
+                    case "--substats" -> subStats = parseCount(option, value);
+                    case "--threads" -> threads = parsePositive(option, value);
+                    case "--port" -> port = parseCount(option, value);
+                    case "--url" -> url = value;
+                    case "--requests" -> requests = parsePositive(option, value);
+                    default -> throw new IllegalArgumentException(String.format("Unknown option %s", option));
+                }
+            }
+
+            if (positional.isEmpty())
+                throw new IllegalArgumentException("Missing the command");
+
+            AnalysisFilters filters = new AnalysisFilters(rank.getHigherScores(), mainStat.getHigherScores(), subStats);
+
+            return new Options(
+                positional.get(0), List.copyOf(positional.subList(1, positional.size())),
+                dbFile, format, limit, filters, threads, port, url, requests
+            );
+        }
+
+        private static int parsePositive(String option, String value) {
+            int count = parseCount(option, value);
+            if (count == 0)
+                throw new IllegalArgumentException(String.format("%s must be at least 1", option));
+
+            return count;
+        }
+
+        private static int parseCount(String option, String value) {
+            try {
+                int count = Integer.parseInt(value);
+                if (count >= 0)
+                    return count;
+            } catch (NumberFormatException e) {
+                // reported below
+            }
+
+            throw new IllegalArgumentException(String.format("%s must be a number, not %s", option, value));
+        }
+
+        private static <E extends Enum<E>> E parseEnum(Class<E> enumClass, String option, String value) {
+            try {
+                return Enum.valueOf(enumClass, value.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(String.format(
+                    "%s must be one of %s, not %s", option, Arrays.toString(enumClass.getEnumConstants()), value
+                ));
+            }
+        }
+
+    }
+
+}
@@ -1,5 +1,6 @@
 package ro.cofi.relicdb;
 
+import com.google.gson.JsonObject;
 import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
 import javafx.concurrent.Worker;
@@ -13,6 +14,7 @@ import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.ProgressIndicator;
 import javafx.scene.control.TextArea;
 import javafx.scene.layout.AnchorPane;
+import javafx.scene.layout.Pane;
 import javafx.scene.web.WebView;
 import javafx.stage.Stage;
 import org.apache.logging.log4j.LogManager;
@@ -21,6 +23,7 @@ import org.w3c.dom.Document;
 import org.w3c.dom.NodeList;
 import org.w3c.dom.events.EventTarget;
 import org.w3c.dom.html.HTMLAnchorElement;
+import ro.cofi.relicdb.io.ChoiceChanges;
 import ro.cofi.relicdb.io.DBChoice;
 import ro.cofi.relicdb.io.DBFileManager;
 import ro.cofi.relicdb.io.DBScraper;
@@ -31,6 +34,7 @@ import ro.cofi.relicdb.scoring.AnalysisFilters;
 import ro.cofi.relicdb.scoring.AnalysisRecipe;
 import ro.cofi.relicdb.scoring.MainStatScoreType;
 import ro.cofi.relicdb.scoring.RankScoreType;
+import ro.cofi.relicdb.scoring.Score;
 
 import java.awt.Desktop;
 import java.io.IOException;
@@ -40,26 +44,28 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.stream.IntStream;
 
 public class RelicDBController {
 
     private static final Logger LOGGER = LogManager.getLogger(RelicDBController.class);
 
-    private final DBFileManager dbFileManager = new DBFileManager();
+    private static final int RESULT_PAGE_SIZE = 20;
+
+    private final StartupPipeline startup;
+    private final DBFileManager dbFileManager;
     private final DBScraper dbScraper = new DBScraper();
-    private final ExecutorService executorService = new ThreadPoolExecutor(
-        1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingDeque<>(1)
-    );
+    private final TaskScheduler scheduler = new TaskScheduler();
 
+    // only touched on the UI thread - background tasks get the DB they work on when submitted
     private LoadedDB loadedDB;
+    // changes reported before the discovered choices are shown, replayed on top of them once they are
+    private List<ChoiceChanges> pendingChoiceChanges = new ArrayList<>();
 
     @FXML
     private AnchorPane dbVersionPane;
@@ -101,23 +107,42 @@ public class RelicDBController {
     @FXML
     private ProgressIndicator analysisProgress;
     @FXML
+    private Pane analysisResultPane;
+    @FXML
+    private Button analysisMoreButton;
+
+    // created with the first results, the web engine is the slowest part of the window to start
     private WebView analysisResult;
 
     private final Map<ChoiceBox<Stat>, ChangeListener<Stat>> inputSubstatListenerMap = new LinkedHashMap<>();
 
-    private final Runnable directoryListener = () -> executeUI(() -> {
+    // the analysis being displayed, more of its results are rendered on request
+    private AnalysisRecipe shownRecipe;
+    private AnalysisFilters shownFilters;
+    private final List<String> shownResults = new ArrayList<>();
+
+    // once an analysis was asked for, the results follow the inputs until another DB is loaded
+    private boolean liveAnalysis;
+
+    private final Consumer<ChoiceChanges> directoryListener = changes -> executeUI(() -> {
+        if (pendingChoiceChanges != null) {
+            pendingChoiceChanges.add(changes);
+            return;
+        }
+
         // save current selection
         DBChoice selectedChoice = dbVersionChoice.getSelectionModel().getSelectedItem();
 
         removeChoiceListener();
-        clearChoiceSelection();
-        setChoices(discoverChoices());
+        patchChoices(changes);
 
-        // if the previously selected choice is still available, select it
-        if (selectedChoice != null && dbVersionChoice.getItems().contains(selectedChoice))
+        // if the previously selected choice is still available, keep it selected
+        if (selectedChoice != null && dbVersionChoice.getItems().contains(selectedChoice)) {
             dbVersionChoice.getSelectionModel().select(selectedChoice);
-        else
+        } else {
+            clearChoiceSelection();
             unloadChoice();
+        }
 
         // add the listener after selecting - this way, no DB reload is triggered
         addChoiceListener();
@@ -126,41 +151,52 @@ public class RelicDBController {
     private final ChangeListener<DBChoice> choiceChangeListener = (observable, oldValue, newValue) -> {
         unloadChoice();
 
+        // the placeholder choice of an empty directory has nothing to load
+        if (newValue == null || newValue == DBChoice.DUMMY)
+            return;
+
         updateNode(dbVersionPane, true, false);
-        executeWithProgress(dbVersionProgress, () -> {
+        executeWithProgress(TaskScheduler.Lane.IO, dbVersionProgress, ticket -> {
             try {
                 LOGGER.info(
                     "Loading DB file \"{}\", at path {}",
                     newValue, newValue.getFile().getAbsolutePath()
                 );
-                loadedDB = dbFileManager.loadDBFile(newValue);
+                LoadedDB newDB = loadDB(newValue);
 
                 executeUI(() -> {
-                    if (loadedDB != null)
-                        showAnalysis();
+                    if (ticket.isCancelled())
+                        return;
+
+                    loadedDB = newDB;
+                    showAnalysis();
+                    markReady();
 
-                    updateNode(dbVersionExplorerButton, true, loadedDB != null);
+                    updateNode(dbVersionExplorerButton, true, true);
                 });
             } catch (Exception e) {
-                loadedDB = null;
-                executeUI(() -> dbVersionChoice.getSelectionModel().clearSelection());
-                errorAlert("Could not load DB", e);
-            } finally {
-                executeUI(() -> updateNode(dbVersionPane, true, true));
+                reportFailure(ticket, "Could not load DB", e);
+                executeUI(() -> {
+                    if (!ticket.isCancelled())
+                        dbVersionChoice.getSelectionModel().clearSelection();
+                });
             }
-        });
+        }, () -> updateNode(dbVersionPane, true, true));
     };
 
     private final EventHandler<ActionEvent> dbVersionUpdateButtonListener = event -> {
         updateNode(dbVersionPane, true, false);
         updateNode(analysisPane, false, false);
-        executeWithProgress(dbVersionProgress, () -> {
+        executeWithProgress(TaskScheduler.Lane.IO, dbVersionProgress, ticket -> {
             try {
                 LOGGER.info("Pulling info from the web...");
-                String newFilePath = dbFileManager.storeDBFile(dbScraper.scrape());
+                String newFilePath = storeDBFile(dbScraper.scrape());
                 LOGGER.info("Update complete. Written to file: {}", newFilePath);
 
                 executeUI(() -> {
+                    if (ticket.isCancelled())
+                        return;
+
                     removeChoiceListener();
                     clearChoiceSelection();
                     setChoices(discoverChoices());
@@ -168,17 +204,18 @@ public class RelicDBController {
                     selectFirstChoice();
                 });
             } catch (Exception e) {
-                errorAlert("Could not perform DB update", e);
-                executeUI(this::clearChoiceSelection);
-            } finally {
-                executeUI(() -> updateNode(dbVersionPane, true, true));
+                reportFailure(ticket, "Could not perform DB update", e);
+                executeUI(() -> {
+                    if (!ticket.isCancelled())
+                        clearChoiceSelection();
+                });
             }
-        });
+        }, () -> updateNode(dbVersionPane, true, true));
     };
 
     private final EventHandler<ActionEvent> dbVersionExplorerButtonListener = event -> {
         try {
-            dbFileManager.openExplorer(loadedDB.getDBChoice());
+            openExplorer(loadedDB.getDBChoice());
         } catch (Exception e) {
             errorAlert("Could not open explorer", e);
         }
@@ -197,7 +234,7 @@ public class RelicDBController {
         inputRelicPart.getItems().setAll(newValue.getParts());
         updateNode(inputRelicPart, true, true);
 
-        inputSetName.getItems().setAll(loadedDB.getWeaponNames(newValue.getJsonKey()));
+        inputSetName.getItems().setAll(loadedDB.getWeaponNames(newValue));
         updateNode(inputSetName, true, true);
     };
 
@@ -220,8 +257,12 @@ public class RelicDBController {
         updateNode(inputMainStat, true, inputMainStat.getItems().size() > 1);
     };
 
-    private final ChangeListener<String> inputRelicNameListener = (observable, oldValue, newValue) ->
+    private final ChangeListener<String> inputRelicNameListener = (observable, oldValue, newValue) -> {
         testReadyForAnalysis();
+        reanalyze();
+    };
+
+    private final ChangeListener<Object> filterListener = (observable, oldValue, newValue) -> reanalyze();
 
     private final ChangeListener<Stat> inputMainStatListener = (observable, oldValue, newValue) -> {
         testReadyForAnalysis();
@@ -244,48 +285,36 @@ public class RelicDBController {
             if (previousSelection != newValue)
                 inputSubStat.getSelectionModel().select(previousSelection);
         });
+
+        reanalyze();
     };
 
     private final EventHandler<ActionEvent> analysisButtonListener = event -> {
-        updateNode(dbVersionPane, true, false);
-        updateNode(analysisPane, true, false);
-        analysisResult.getEngine().loadContent("");
-        executeWithProgress(analysisProgress, () -> {
-            try {
-                RelicType relicType = inputRelicType.getSelectionModel().getSelectedItem();
-                RelicPart relicPart = inputRelicPart.getSelectionModel().getSelectedItem();
-                String relicName = inputSetName.getSelectionModel().getSelectedItem();
-                Stat mainStat = inputMainStat.getSelectionModel().getSelectedItem();
-                Stat substat1 = inputSubstat1.getSelectionModel().getSelectedItem();
-                Stat substat2 = inputSubstat2.getSelectionModel().getSelectedItem();
-                Stat substat3 = inputSubstat3.getSelectionModel().getSelectedItem();
-                Stat substat4 = inputSubstat4.getSelectionModel().getSelectedItem();
-
-                AnalysisRecipe recipe = new AnalysisRecipe(
-                    relicType, relicPart, relicName,
-                    mainStat, substat1, substat2, substat3, substat4
-                );
+        liveAnalysis = true;
+        startAnalysis();
+    };
 
-                AnalysisFilters filters = new AnalysisFilters(
-                    filterSetScore.getSelectionModel().getSelectedItem().getHigherScores(),
-                    filterMainStatScore.getSelectionModel().getSelectedItem().getHigherScores(),
-                    filterSubStatCount.getSelectionModel().getSelectedItem()
-                );
+    private final EventHandler<ActionEvent> analysisMoreButtonListener = event -> {
+        LoadedDB db = loadedDB;
+        AnalysisRecipe recipe = shownRecipe;
+        AnalysisFilters filters = shownFilters;
+        int offset = shownResults.size();
 
-                String analysisResultHTML = loadedDB.analyzeItem(recipe, filters);
+        executeWithProgress(TaskScheduler.Lane.CPU, analysisProgress, ticket -> {
+            try {
+                ResultPage resultPage = db.getPage(recipe, filters, offset, RESULT_PAGE_SIZE);
+                ticket.throwIfCancelled();
 
-                LOGGER.info("Analysis complete");
+                List<String> descriptions = resultPage.scores().stream().map(Score::getDescription).toList();
 
-                executeUI(() -> analysisResult.getEngine().loadContent(analysisResultHTML));
-            } catch (Exception e) {
-                errorAlert("Could not perform analysis", e);
-            } finally {
                 executeUI(() -> {
-                    updateNode(dbVersionPane, true, true);
-                    updateNode(analysisPane, true, true);
+                    if (!ticket.isCancelled())
+                        showResults(resultPage, descriptions);
                 });
+            } catch (Exception e) {
+                reportFailure(ticket, "Could not show more results", e);
             }
-        });
+        }, () -> { });
     };
 
     private final ChangeListener<Worker.State> analysisResultListener = (observable, oldState, newState) -> {
@@ -319,6 +348,11 @@ public class RelicDBController {
         }
     };
 
+    RelicDBController(StartupPipeline startup) {
+        this.startup = startup;
+        this.dbFileManager = startup.getDBFileManager();
+    }
+
     @FXML
     private void initialize() {
         LOGGER.info("Initializing controller");
@@ -329,33 +363,53 @@ public class RelicDBController {
         inputSubstatListenerMap.put(inputSubstat4, null);
 
         // assure visibility
-        updateNode(dbVersionPane, true, true);
+        updateNode(dbVersionPane, true, false);
         updateNode(dbVersionChoice, true, true);
         updateNode(dbVersionUpdateButton, true, true);
         updateNode(dbVersionExplorerButton, true, true);
-        updateNode(dbVersionProgress, false, true);
+        updateNode(dbVersionProgress, true, true);
 
         updateNode(analysisPane, false, false);
         updateNode(analysisProgress, false, true);
-        updateNode(analysisResult, true, true);
+        updateNode(analysisResultPane, true, true);
         disableAnalysisChoices(false, false);
 
-        // add listener for file changes
+        // add listener for file changes - the monitor itself is started in the background
         dbFileManager.addDirectoryListener(directoryListener);
-
-        try {
-            LOGGER.info("Initializing directory monitor");
-            dbFileManager.initDirectoryMonitor();
-        } catch (Exception e) {
+        startup.getDirectoryMonitor().exceptionally(e -> {
             errorAlert("Could not initialize directory monitor", e);
-        }
+            return null;
+        });
 
-        // set up DB version choices
-        removeChoiceListener();
-        clearChoiceSelection();
-        setChoices(discoverChoices());
-        addChoiceListener();
-        selectFirstChoice();
+        // set up DB version choices once they are discovered, the newest one is already being loaded by then
+        startup.getChoices().whenComplete((choices, e) -> executeUI(() -> {
+            updateNode(dbVersionPane, true, true);
+            updateNode(dbVersionProgress, false, true);
+
+            List<ChoiceChanges> pendingChanges = pendingChoiceChanges;
+            pendingChoiceChanges = null;
+
+            // a failed background discovery gets one more try here, like any later rediscovery
+            List<DBChoice> discoveredChoices = choices;
+            if (e != null) {
+                LOGGER.warn("Could not discover DB versions in the background, trying again", e);
+
+                try {
+                    discoveredChoices = discoverChoices();
+                } catch (RuntimeException retryException) {
+                    errorAlert("Could not discover DB versions", retryException);
+                    return;
+                }
+            }
+
+            // patching is idempotent, so changes which the discovery already saw are harmless
+            removeChoiceListener();
+            clearChoiceSelection();
+            setChoices(discoveredChoices);
+            pendingChanges.forEach(this::patchChoices);
+            addChoiceListener();
+            selectFirstChoice();
+        }));
         dbVersionUpdateButton.setOnAction(dbVersionUpdateButtonListener);
         dbVersionExplorerButton.setOnAction(dbVersionExplorerButtonListener);
 
@@ -379,8 +433,12 @@ public class RelicDBController {
         filterMainStatScore.getSelectionModel().select(MainStatScoreType.IDEAL);
         setFilterSubStatMaxCount(0);
         filterSubStatCount.getSelectionModel().select(0);
+        filterSetScore.getSelectionModel().selectedItemProperty().addListener(filterListener);
+        filterMainStatScore.getSelectionModel().selectedItemProperty().addListener(filterListener);
+        filterSubStatCount.getSelectionModel().selectedItemProperty().addListener(filterListener);
         analysisButton.setOnAction(analysisButtonListener);
-        analysisResult.getEngine().getLoadWorker().stateProperty().addListener(analysisResultListener);
+        analysisMoreButton.setOnAction(analysisMoreButtonListener);
+        updateNode(analysisMoreButton, false, false);
     }
 
     private void errorAlert(String message, Throwable throwable) {
@@ -406,7 +464,28 @@ public class RelicDBController {
         });
     }
 
+    // a failure of superseded work is expected, and not worth an alert
+    private void reportFailure(TaskScheduler.Ticket ticket, String message, Exception e) {
+        if (ticket.isCancelled()) {
+            LOGGER.info("{} - superseded by a newer request", message);
+            return;
+        }
+
+        errorAlert(message, e);
+    }
+
+    private LoadedDB loadDB(DBChoice choice) throws IOException {
+        LoadedDB preloaded = startup.awaitPreloaded(choice);
+        if (preloaded != null)
+            return preloaded;
+
+        return dbFileManager.loadDBFile(choice);
+    }
+
     private void unloadChoice() {
+        // results of the previous DB must not show up once it is gone
+        scheduler.cancel(TaskScheduler.Lane.CPU);
+
         loadedDB = null;
         updateNode(analysisPane, false, false);
         updateNode(dbVersionExplorerButton, true, false);
@@ -416,6 +495,18 @@ public class RelicDBController {
         return dbFileManager.discoverChoices();
     }
 
+    private String storeDBFile(JsonObject data) throws IOException {
+        return dbFileManager.storeDBFile(data);
+    }
+
+    private void openExplorer(DBChoice choice) throws IOException {
+        dbFileManager.openExplorer(choice);
+    }
+
+    private void markReady() {
+        startup.markReady();
+    }
+
     private void clearChoiceSelection() {
         dbVersionChoice.getSelectionModel().clearSelection();
     }
@@ -424,6 +515,23 @@ public class RelicDBController {
         dbVersionChoice.getItems().setAll(dbChoices);
     }
 
+    private void patchChoices(ChoiceChanges changes) {
+        // only touch the changed items, instead of replacing the whole list
+        List<DBChoice> items = dbVersionChoice.getItems();
+        items.removeAll(changes.removed());
+        items.remove(DBChoice.DUMMY);
+
+        // the items are kept sorted, so insert each new choice at its position
+        for (DBChoice choice : changes.added()) {
+            int index = Collections.binarySearch(items, choice);
+            if (index < 0)
+                items.add(-index - 1, choice);
+        }
+
+        if (items.isEmpty())
+            items.add(DBChoice.DUMMY);
+    }
+
     private void selectFirstChoice() {
         dbVersionChoice.getSelectionModel().selectFirst();
     }
@@ -493,6 +601,7 @@ public class RelicDBController {
                 .count();
 
             setFilterSubStatMaxCount((int) setSubstatCount);
+            reanalyze();
         };
     }
 
@@ -506,9 +615,111 @@ public class RelicDBController {
         filterSubStatCount.getSelectionModel().select(newSelection);
     }
 
+    private void reanalyze() {
+        // filters are briefly unselected while their items are replaced
+        boolean filtersSelected = filterSetScore.getSelectionModel().getSelectedItem() != null
+                                  && filterMainStatScore.getSelectionModel().getSelectedItem() != null
+                                  && filterSubStatCount.getSelectionModel().getSelectedItem() != null;
+
+        if (liveAnalysis && loadedDB != null && !analysisButton.isDisabled() && filtersSelected)
+            startAnalysis();
+    }
+
+    private void startAnalysis() {
+        LoadedDB db = loadedDB;
+
+        AnalysisRecipe recipe = new AnalysisRecipe(
+            inputRelicType.getSelectionModel().getSelectedItem(),
+            inputRelicPart.getSelectionModel().getSelectedItem(),
+            inputSetName.getSelectionModel().getSelectedItem(),
+            inputMainStat.getSelectionModel().getSelectedItem(),
+            inputSubstat1.getSelectionModel().getSelectedItem(),
+            inputSubstat2.getSelectionModel().getSelectedItem(),
+            inputSubstat3.getSelectionModel().getSelectedItem(),
+            inputSubstat4.getSelectionModel().getSelectedItem()
+        );
+
+        AnalysisFilters filters = new AnalysisFilters(
+            filterSetScore.getSelectionModel().getSelectedItem().getHigherScores(),
+            filterMainStatScore.getSelectionModel().getSelectedItem().getHigherScores(),
+            filterSubStatCount.getSelectionModel().getSelectedItem()
+        );
+
+        // the shown results stay until the new ones replace them, but can no longer be extended
+        updateNode(analysisMoreButton, false, false);
+
+        executeWithProgress(TaskScheduler.Lane.CPU, analysisProgress, ticket -> {
+            try {
+                // only the first page is sorted and rendered, the rest is shown on request
+                ResultPage resultPage = db.getPage(recipe, filters, 0, RESULT_PAGE_SIZE);
+                ticket.throwIfCancelled();
+
+                List<String> descriptions = resultPage.scores().stream().map(Score::getDescription).toList();
+
+                LOGGER.info("Analysis complete");
+
+                executeUI(() -> {
+                    if (ticket.isCancelled())
+                        return;
+
+                    clearShownResults();
+                    shownRecipe = recipe;
+                    shownFilters = filters;
+                    showResults(resultPage, descriptions);
+                });
+            } catch (Exception e) {
+                reportFailure(ticket, "Could not perform analysis", e);
+            }
+        }, () -> { });
+    }
+
+    private void showResults(ResultPage resultPage, List<String> descriptions) {
+        shownResults.addAll(descriptions);
+
+        String analysisResultHTML = shownResults.isEmpty()
+            ? LoadedDB.NO_RESULTS_MESSAGE
+            : HTMLUtil.wrapInLineBreaks(shownResults);
+        getAnalysisResult().getEngine().loadContent(analysisResultHTML);
+
+        analysisMoreButton.setText(String.format(
+            "SHOW MORE (%d of %d shown)", shownResults.size(), resultPage.totalCount()
+        ));
+        updateNode(analysisMoreButton, resultPage.hasMore(), resultPage.hasMore());
+    }
+
+    private WebView getAnalysisResult() {
+        if (analysisResult != null)
+            return analysisResult;
+
+        long startTime = System.nanoTime();
+
+        analysisResult = new WebView();
+        analysisResult.setPrefSize(analysisResultPane.getPrefWidth(), analysisResultPane.getPrefHeight());
+        analysisResult.getEngine().getLoadWorker().stateProperty().addListener(analysisResultListener);
+        analysisResultPane.getChildren().add(analysisResult);
+
+        StartupPipeline.logPhase("web view creation", startTime);
+        return analysisResult;
+    }
+
+    private void clearShownResults() {
+        shownRecipe = null;
+        shownFilters = null;
+        shownResults.clear();
+        updateNode(analysisMoreButton, false, false);
+    }
+
     private void showAnalysis() {
         updateNode(analysisPane, true, true);
 
+        // a new DB starts over, without analyzing as the choices are reset below
+        liveAnalysis = false;
+        if (analysisResult != null)
+            analysisResult.getEngine().loadContent("");
+
+        // results of a previous DB can not be extended
+        clearShownResults();
+
         // disable all choices except relic type and substats
         disableAnalysisChoices(true, true);
     }
@@ -518,19 +729,18 @@ public class RelicDBController {
         node.setDisable(!enabled);
     }
 
-    private void executeWithProgress(ProgressIndicator indicator, Runnable runnable) {
+    // onSettled runs on the UI thread, only if no newer task took over the lane in the meantime
+    private void executeWithProgress(
+        TaskScheduler.Lane lane, ProgressIndicator indicator, TaskScheduler.Task task, Runnable onSettled
+    ) {
         updateNode(indicator, true, true);
-        executeBackground(() -> {
-            try {
-                runnable.run();
-            } finally {
-                executeUI(() -> updateNode(indicator, false, true));
-            }
-        });
-    }
+        scheduler.submit(lane, task, ticket -> executeUI(() -> {
+            if (!scheduler.isLatest(ticket))
+                return;
 
-    private void executeBackground(Runnable runnable) {
-        executorService.execute(runnable);
+            updateNode(indicator, false, true);
+            onSettled.run();
+        }));
     }
 
     private void executeUI(Runnable runnable) {
@@ -539,7 +749,7 @@ public class RelicDBController {
 
     public void shutdown() {
         LOGGER.info("Shutting down...");
-        executorService.shutdown();
+        scheduler.shutdown();
         dbFileManager.shutdown();
     }
 
@@ -0,0 +1,14 @@
+package ro.cofi.relicdb;
+
+import ro.cofi.relicdb.scoring.Score;
+
+import java.util.List;
+
+// a slice of the sorted results, starting at the given offset
+public record ResultPage(List<Score> scores, int offset, int totalCount) {
+
+    public boolean hasMore() {
+        return offset + scores.size() < totalCount;
+    }
+
+}
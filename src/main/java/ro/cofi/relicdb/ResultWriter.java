@@ -0,0 +1,263 @@
+package ro.cofi.relicdb;
+
+import com.google.gson.stream.JsonWriter;
+import ro.cofi.relicdb.io.DBChoice;
+import ro.cofi.relicdb.logic.RelicPart;
+import ro.cofi.relicdb.logic.RelicType;
+import ro.cofi.relicdb.logic.Stat;
+import ro.cofi.relicdb.model.RecommendationIndex;
+import ro.cofi.relicdb.scoring.AnalysisRecipe;
+import ro.cofi.relicdb.scoring.Score;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+// Writes plain results for scripts and files - one JSON object per line, or indented text meant to be read.
+// Stats, types and parts are written as their IDs in JSON, and as their display names in text.
+class ResultWriter {
+
+    private final Writer out;
+    private final OutputFormat format;
+    private final JsonWriter jsonWriter;
+
+    ResultWriter(Writer out, OutputFormat format) {
+        this.out = out;
+        this.format = format;
+
+        // lenient, so that one value can follow another
+        jsonWriter = new JsonWriter(out);
+        jsonWriter.setLenient(true);
+    }
+
+    void writeRelic(int index, AnalysisRecipe relic, ResultPage page) throws IOException {
+        List<Stat> subStats = getSubStats(relic);
+
+        if (format == OutputFormat.TEXT) {
+            out.write(String.format(
+                "#%d %s / %s / %s / %s / [%s] - %d matches%n",
+                index + 1, relic.type(), relic.part(), relic.name(), relic.mainStat(),
+                subStats.stream().map(Stat::toString).collect(Collectors.joining(", ")), page.totalCount()
+            ));
+
+            for (Score score : page.scores())
+                out.write(String.format(
+                    "  %2d  %s (set %s, main stat %s, %d substats)%n",
+                    score.getTotalScore(), score.getCharacter(), score.getRankScoreType(),
+                    score.getMainStatScoreType() != null ? score.getMainStatScoreType() : "fixed",
+                    score.getMetSubStatCount()
+                ));
+
+            return;
+        }
+
+        jsonWriter.beginObject();
+        jsonWriter.name("relic").value(index + 1);
+        jsonWriter.name("type").value(relic.type().name());
+        jsonWriter.name("part").value(relic.part().name());
+        jsonWriter.name("set").value(relic.name());
+        jsonWriter.name("mainStat").value(relic.mainStat().name());
+
+        jsonWriter.name("subStats").beginArray();
+        for (Stat subStat : subStats)
+            jsonWriter.value(subStat.name());
+        jsonWriter.endArray();
+
+        jsonWriter.name("matches").value(page.totalCount());
+
+        jsonWriter.name("results").beginArray();
+        for (Score score : page.scores()) {
+            jsonWriter.beginObject();
+            jsonWriter.name("character").value(score.getCharacter());
+            jsonWriter.name("score").value(score.getTotalScore());
+            jsonWriter.name("rank").value(score.getRankScoreType().name());
+
+            // fixed main stats are not scored
+            if (score.getMainStatScoreType() != null)
+                jsonWriter.name("mainStat").value(score.getMainStatScoreType().name());
+
+            jsonWriter.name("metSubStats").value(score.getMetSubStatCount());
+            jsonWriter.endObject();
+        }
+        jsonWriter.endArray();
+
+        jsonWriter.endObject();
+        out.write('\n');
+    }
+
+    void writeRecommendations(RecommendationIndex.CharacterRecommendations recommendations) throws IOException {
+        Map<RelicType, List<RecommendationIndex.SetRecommendation>> sets = recommendations.sets();
+        Map<RelicPart, RecommendationIndex.MainStatRecommendation> mainStats = recommendations.mainStats();
+
+        if (format == OutputFormat.TEXT) {
+            out.write(String.format("%s%n", recommendations.character().name()));
+
+            for (RelicType type : RelicType.values())
+                for (RecommendationIndex.SetRecommendation set : sets.get(type))
+                    out.write(String.format(
+                        "  %s: #%d %s%s%n", type, set.rank(), set.setName(),
+                        set.otherSetName() != null ? " + " + set.otherSetName() : ""
+                    ));
+
+            for (RelicPart part : RelicPart.values())
+                out.write(String.format("  %s: %s%n", part, joinStats(mainStats.get(part).idealStats())));
+
+            for (RecommendationIndex.SubStatRecommendation subStat : recommendations.subStats())
+                out.write(String.format("  Substat %s: %s%n", subStat.stat(), String.join(", ", subStat.lines())));
+
+            return;
+        }
+
+        jsonWriter.beginObject();
+        jsonWriter.name("character").value(recommendations.character().name());
+        jsonWriter.name("url").value(recommendations.character().url());
+
+        jsonWriter.name("sets").beginObject();
+        for (RelicType type : RelicType.values()) {
+            jsonWriter.name(type.name()).beginArray();
+            for (RecommendationIndex.SetRecommendation set : sets.get(type)) {
+                jsonWriter.beginObject();
+                jsonWriter.name("set").value(set.setName());
+                jsonWriter.name("rank").value(set.rank());
+                if (set.otherSetName() != null)
+                    jsonWriter.name("otherSet").value(set.otherSetName());
+                jsonWriter.endObject();
+            }
+            jsonWriter.endArray();
+        }
+        jsonWriter.endObject();
+
+        jsonWriter.name("mainStats").beginObject();
+        for (RelicPart part : RelicPart.values()) {
+            jsonWriter.name(part.name()).beginArray();
+            for (Stat stat : mainStats.get(part).idealStats())
+                jsonWriter.value(stat.name());
+            jsonWriter.endArray();
+        }
+        jsonWriter.endObject();
+
+        jsonWriter.name("subStats").beginArray();
+        for (RecommendationIndex.SubStatRecommendation subStat : recommendations.subStats()) {
+            jsonWriter.beginObject();
+            jsonWriter.name("stat").value(subStat.stat().name());
+            jsonWriter.name("lines").value(subStat.lines().size());
+            jsonWriter.endObject();
+        }
+        jsonWriter.endArray();
+
+        jsonWriter.endObject();
+        out.write('\n');
+    }
+
+    void writeVersion(DBChoice choice) throws IOException {
+        if (format == OutputFormat.TEXT) {
+            out.write(String.format("%s  %s%n", choice, choice.getFile().getName()));
+            return;
+        }
+
+        jsonWriter.beginObject();
+        jsonWriter.name("version").value(choice.toString());
+        jsonWriter.name("file").value(choice.getFile().getName());
+        jsonWriter.endObject();
+        out.write('\n');
+    }
+
+    void writeVersionScores(CrossVersionAnalyzer.VersionScores versionScores, int limit) throws IOException {
+        List<Map.Entry<String, CrossVersionAnalyzer.CharacterScore>> scores = versionScores.scores().entrySet()
+            .stream()
+            .limit(limit)
+            .toList();
+
+        if (format == OutputFormat.TEXT) {
+            if (versionScores.isFailed()) {
+                out.write(String.format("%s - failed: %s%n", versionScores.choice(), versionScores.error()));
+                return;
+            }
+
+            out.write(String.format("%s - %d matches%n", versionScores.choice(), versionScores.scores().size()));
+
+            for (Map.Entry<String, CrossVersionAnalyzer.CharacterScore> score : scores)
+                out.write(String.format("  %2d  %s%n", score.getValue().score(), score.getValue().character()));
+
+            return;
+        }
+
+        jsonWriter.beginObject();
+        jsonWriter.name("version").value(versionScores.choice().toString());
+        jsonWriter.name("file").value(versionScores.choice().getFile().getName());
+
+        if (versionScores.isFailed()) {
+            jsonWriter.name("error").value(versionScores.error());
+            jsonWriter.endObject();
+            out.write('\n');
+            return;
+        }
+
+        jsonWriter.name("matches").value(versionScores.scores().size());
+
+        jsonWriter.name("results").beginArray();
+        for (Map.Entry<String, CrossVersionAnalyzer.CharacterScore> score : scores) {
+            jsonWriter.beginObject();
+            jsonWriter.name("character").value(score.getValue().character());
+            jsonWriter.name("url").value(score.getKey());
+            jsonWriter.name("score").value(score.getValue().score());
+            jsonWriter.endObject();
+        }
+        jsonWriter.endArray();
+
+        jsonWriter.endObject();
+        out.write('\n');
+    }
+
+    void writeVersionDiff(CrossVersionAnalyzer.VersionDiff diff) throws IOException {
+        if (format == OutputFormat.TEXT) {
+            out.write(String.format("%s -> %s - %d changes%n", diff.from(), diff.to(), diff.changes().size()));
+
+            for (CrossVersionAnalyzer.ScoreChange change : diff.changes())
+                out.write(String.format(
+                    "  %s: %s -> %s%n", change.character(),
+                    Objects.toString(change.oldScore(), "-"), Objects.toString(change.newScore(), "-")
+                ));
+
+            return;
+        }
+
+        jsonWriter.beginObject();
+        jsonWriter.name("from").value(diff.from().toString());
+        jsonWriter.name("to").value(diff.to().toString());
+
+        // a missing score means that the character did not match in that version
+        jsonWriter.name("changes").beginArray();
+        for (CrossVersionAnalyzer.ScoreChange change : diff.changes()) {
+            jsonWriter.beginObject();
+            jsonWriter.name("character").value(change.character());
+            jsonWriter.name("url").value(change.characterURL());
+            jsonWriter.name("oldScore").value(change.oldScore());
+            jsonWriter.name("newScore").value(change.newScore());
+            jsonWriter.endObject();
+        }
+        jsonWriter.endArray();
+
+        jsonWriter.endObject();
+        out.write('\n');
+    }
+
+    void flush() throws IOException {
+        out.flush();
+    }
+
+    private static List<Stat> getSubStats(AnalysisRecipe relic) {
+        return Arrays.stream(new Stat[] { relic.subStat1(), relic.subStat2(), relic.subStat3(), relic.subStat4() })
+            .filter(Objects::nonNull)
+            .toList();
+    }
+
+    private static String joinStats(List<Stat> stats) {
+        return stats.stream().map(Stat::toString).collect(Collectors.joining(" / "));
+    }
+
+}
@@ -0,0 +1,217 @@
+package ro.cofi.relicdb;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ro.cofi.relicdb.io.DBChoice;
+import ro.cofi.relicdb.io.DBFileManager;
+import ro.cofi.relicdb.logic.RelicPart;
+import ro.cofi.relicdb.logic.RelicType;
+import ro.cofi.relicdb.logic.Stat;
+import ro.cofi.relicdb.scoring.AnalysisFilters;
+import ro.cofi.relicdb.scoring.AnalysisRecipe;
+import ro.cofi.relicdb.scoring.MainStatScoreType;
+import ro.cofi.relicdb.scoring.RankScoreType;
+import ro.cofi.relicdb.scoring.Score;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Gets the newest DB ready while the window is being built, instead of after it is shown.
+// Versions are discovered and the directory monitor is started in parallel, then the newest version is parsed, and
+// finally a few synthetic analyses warm up the JIT at a low priority. Each phase is logged with its duration.
+class StartupPipeline {
+
+    private static final Logger LOGGER = LogManager.getLogger(StartupPipeline.class);
+
+    private static final int THREADS = 2;
+    private static final int WARMUP_ANALYSES = 200;
+    private static final int WARMUP_RESULTS = 20;
+    private static final long WARMUP_SEED = 42;
+
+    private final DBFileManager dbFileManager = new DBFileManager();
+    private final AtomicBoolean ready = new AtomicBoolean();
+
+    private final CompletableFuture<List<DBChoice>> choices;
+    private final CompletableFuture<Void> directoryMonitor;
+    // dropped once taken, so the pipeline does not pin the DB - from then on, the DB cache decides how long it lives
+    private final AtomicReference<CompletableFuture<LoadedDB>> newestDB = new AtomicReference<>();
+
+    private StartupPipeline() {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            THREADS, THREADS, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+            runnable -> {
+                Thread thread = new Thread(runnable, "startup-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        );
+        // the threads are only needed while starting up
+        executor.allowCoreThreadTimeOut(true);
+
+        choices = CompletableFuture.supplyAsync(() -> {
+            long startTime = System.nanoTime();
+            List<DBChoice> discoveredChoices = dbFileManager.discoverChoices();
+
+            logPhase("version discovery", startTime);
+            return discoveredChoices;
+        }, executor);
+
+        directoryMonitor = CompletableFuture.runAsync(() -> {
+            long startTime = System.nanoTime();
+            try {
+                dbFileManager.initDirectoryMonitor();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            logPhase("directory monitor", startTime);
+        }, executor);
+
+        CompletableFuture<LoadedDB> newestLoad = choices.thenApplyAsync(discoveredChoices -> {
+            long startTime = System.nanoTime();
+            try {
+                // the dummy choice of an empty directory loads as null, anything else also goes into the DB cache
+                LoadedDB loadedDB = dbFileManager.loadDBFile(discoveredChoices.get(0));
+
+                logPhase("newest DB load", startTime);
+                return loadedDB;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+        newestDB.set(newestLoad);
+
+        newestLoad.thenAccept(loadedDB -> {
+            if (loadedDB == null)
+                return;
+
+            Thread warmup = new Thread(() -> warmUp(loadedDB), "jit-warmup");
+            warmup.setDaemon(true);
+            warmup.setPriority(Thread.MIN_PRIORITY);
+            warmup.start();
+        });
+    }
+
+    static StartupPipeline start() {
+        LOGGER.info("Starting up, {} ms after the JVM started", getMillisSinceJVMStart());
+        return new StartupPipeline();
+    }
+
+    DBFileManager getDBFileManager() {
+        return dbFileManager;
+    }
+
+    CompletableFuture<List<DBChoice>> getChoices() {
+        return choices;
+    }
+
+    CompletableFuture<Void> getDirectoryMonitor() {
+        return directoryMonitor;
+    }
+
+    // null if the choice is not the one parsed at startup, or if it was already taken, otherwise waits for it
+    // a failed discovery parsed nothing, so its choices are loaded like any other
+    LoadedDB awaitPreloaded(DBChoice choice) throws IOException {
+        if (!choices.isDone() || choices.isCompletedExceptionally())
+            return null;
+
+        List<DBChoice> discoveredChoices = choices.join();
+        if (!discoveredChoices.get(0).equals(choice))
+            return null;
+
+        CompletableFuture<LoadedDB> newestLoad = newestDB.getAndSet(null);
+        if (newestLoad == null)
+            return null;
+
+        try {
+            return newestLoad.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the newest DB");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException uncheckedIOException)
+                throw uncheckedIOException.getCause();
+
+            throw new IOException("Could not load the newest DB", e.getCause());
+        }
+    }
+
+    // the first time a DB can be queried, which is what startup is optimized for
+    void markReady() {
+        if (ready.compareAndSet(false, true))
+            LOGGER.info("Ready for the first query, {} ms after the JVM started", getMillisSinceJVMStart());
+    }
+
+    static void logPhase(String phase, long startTime) {
+        LOGGER.info(
+            "Startup phase {} took {} ms, {} ms after the JVM started",
+            phase, (System.nanoTime() - startTime) / 1_000_000, getMillisSinceJVMStart()
+        );
+    }
+
+    private static long getMillisSinceJVMStart() {
+        return ProcessHandle.current().info().startInstant()
+            .map(jvmStart -> Duration.between(jvmStart, Instant.now()).toMillis())
+            .orElse(-1L);
+    }
+
+    // bypasses the analysis cache, so the real queries do not find synthetic results there
+    private static void warmUp(LoadedDB loadedDB) {
+        long startTime = System.nanoTime();
+
+        Random random = new Random(WARMUP_SEED);
+        AnalysisFilters filters = new AnalysisFilters(
+            RankScoreType.UNACCEPTABLE.getHigherScores(), MainStatScoreType.UNACCEPTABLE.getHigherScores(), 0
+        );
+        int analysisCount = 0;
+
+        for (int i = 0; i < WARMUP_ANALYSES; i++) {
+            RelicType type = RelicType.values()[i % RelicType.values().length];
+            List<String> setNames = loadedDB.getWeaponNames(type);
+            if (setNames.isEmpty())
+                continue;
+
+            RelicPart part = pick(random, type.getParts());
+            Stat mainStat = pick(random, part.getAvailableStats());
+
+            List<Stat> subStats = new ArrayList<>(List.of(Stat.values()));
+            subStats.remove(mainStat);
+            Stat[] ownedSubStats = new Stat[4];
+            for (int j = 0; j < ownedSubStats.length; j++)
+                ownedSubStats[j] = subStats.remove(random.nextInt(subStats.size()));
+
+            AnalysisRecipe recipe = new AnalysisRecipe(
+                type, part, pick(random, setNames), mainStat,
+                ownedSubStats[0], ownedSubStats[1], ownedSubStats[2], ownedSubStats[3]
+            );
+
+            // rendering is part of every real query too
+            for (Score score : loadedDB.computeTopScores(recipe, filters, WARMUP_RESULTS).scores())
+                score.getDescription();
+
+            analysisCount++;
+        }
+
+        logPhase(String.format("JIT warmup (%d analyses)", analysisCount), startTime);
+    }
+
+    private static <T> T pick(Random random, List<T> values) {
+        return values.get(random.nextInt(values.size()));
+    }
+
+}
@@ -0,0 +1,170 @@
+package ro.cofi.relicdb;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+// Runs background work in lanes, one task at a time per lane, so that slow I/O never holds up an analysis.
+// Within a lane the latest request wins - submitting a task cancels the previous one, whether it is still waiting
+// or already running. Cancellation is cooperative: the task's thread is interrupted, which stops blocking I/O, and
+// longer computations check their ticket between steps.
+class TaskScheduler {
+
+    private static final Logger LOGGER = LogManager.getLogger(TaskScheduler.class);
+
+    private final Map<Lane, LaneState> lanes = new EnumMap<>(Lane.class);
+
+    TaskScheduler() {
+        for (Lane lane : Lane.values())
+            lanes.put(lane, new LaneState(lane));
+    }
+
+    // onSettled runs on the lane's thread once the task is over, even if it was cancelled before it could start
+    Ticket submit(Lane lane, Task task, Consumer<Ticket> onSettled) {
+        LaneState laneState = lanes.get(lane);
+        Ticket ticket = new Ticket(lane);
+
+        Ticket previous = laneState.latest.getAndSet(ticket);
+        if (previous != null)
+            previous.cancel();
+
+        // never rejected - superseded tasks are skipped when their turn comes, so the queue does not build up work
+        laneState.executor.execute(() -> run(ticket, task, onSettled));
+
+        return ticket;
+    }
+
+    void cancel(Lane lane) {
+        Ticket latest = lanes.get(lane).latest.get();
+        if (latest != null)
+            latest.cancel();
+    }
+
+    // false once a newer task was submitted to the same lane
+    boolean isLatest(Ticket ticket) {
+        return lanes.get(ticket.lane).latest.get() == ticket;
+    }
+
+    void shutdown() {
+        for (LaneState laneState : lanes.values()) {
+            Ticket latest = laneState.latest.get();
+            if (latest != null)
+                latest.cancel();
+
+            laneState.executor.shutdownNow();
+        }
+    }
+
+    private static void run(Ticket ticket, Task task, Consumer<Ticket> onSettled) {
+        try {
+            if (!ticket.start()) {
+                LOGGER.debug("Skipping a superseded {} task", ticket.lane);
+                return;
+            }
+
+            try {
+                task.run(ticket);
+            } catch (Exception e) {
+                if (ticket.isCancelled())
+                    LOGGER.debug("Cancelled a {} task", ticket.lane);
+                else
+                    LOGGER.error(String.format("A %s task failed", ticket.lane), e);
+            } finally {
+                ticket.finish();
+            }
+        } finally {
+            onSettled.accept(ticket);
+        }
+    }
+
+    enum Lane {
+
+        IO("io-lane"),
+        CPU("cpu-lane");
+
+        private final String threadName;
+
+        Lane(String threadName) {
+            this.threadName = threadName;
+        }
+
+    }
+
+    @FunctionalInterface
+    interface Task {
+
+        void run(Ticket ticket) throws Exception;
+
+    }
+
+    static class Ticket {
+
+        private final Lane lane;
+
+        private boolean cancelled;
+        private Thread runner;
+
+        private Ticket(Lane lane) {
+            this.lane = lane;
+        }
+
+        synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        void throwIfCancelled() {
+            if (isCancelled())
+                throw new CancellationException(String.format("Superseded %s task", lane));
+        }
+
+        private synchronized void cancel() {
+            if (cancelled)
+                return;
+
+            cancelled = true;
+            if (runner != null)
+                runner.interrupt();
+        }
+
+        private synchronized boolean start() {
+            if (cancelled)
+                return false;
+
+            runner = Thread.currentThread();
+            return true;
+        }
+
+        private void finish() {
+            synchronized (this) {
+                runner = null;
+            }
+
+            // a cancellation racing with the end of the task must not leak into the next one
+            Thread.interrupted();
+        }
+
+    }
+
+    private static class LaneState {
+
+        private final AtomicReference<Ticket> latest = new AtomicReference<>();
+        private final ExecutorService executor;
+
+        LaneState(Lane lane) {
+            executor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, lane.threadName);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+    }
+
+}
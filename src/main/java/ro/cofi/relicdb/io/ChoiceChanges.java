@@ -0,0 +1,12 @@
+package ro.cofi.relicdb.io;
+
+import java.util.List;
+
+// a modified version shows up as removed, with its old timestamp, and added again, with the new one
+public record ChoiceChanges(List<DBChoice> removed, List<DBChoice> added) {
+
+    public boolean isEmpty() {
+        return removed.isEmpty() && added.isEmpty();
+    }
+
+}
@@ -1,16 +1,18 @@
 package ro.cofi.relicdb.io;
 
 import java.io.File;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.Objects;
 
 public class DBChoice implements Comparable<DBChoice> {
 
     public static final DBChoice DUMMY = new DBChoice(null, 0);
 
-    // not static as per rule java:S2885
-    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
+    // unlike SimpleDateFormat, this is thread-safe, so it can be shared by all choices
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss")
+        .withZone(ZoneId.systemDefault());
 
     private final File file;
     private final long lastModifiedTimestamp;
@@ -49,7 +51,7 @@ public class DBChoice implements Comparable<DBChoice> {
 
     @Override
     public String toString() {
-        return this != DUMMY ? dateFormat.format(new Date(lastModifiedTimestamp)) : "None";
+        return this != DUMMY ? DATE_FORMAT.format(Instant.ofEpochMilli(lastModifiedTimestamp)) : "None";
     }
 
 }
@@ -0,0 +1,40 @@
+package ro.cofi.relicdb.io;
+
+import java.util.Arrays;
+
+public enum DBFileFormat {
+    PRETTY(".json", true, false),
+    MINIFIED(".json", false, false),
+    GZIP(".json.gz", false, true);
+
+    private final String extension;
+    private final boolean prettyPrinted;
+    private final boolean compressed;
+
+    DBFileFormat(String extension, boolean prettyPrinted, boolean compressed) {
+        this.extension = extension;
+        this.prettyPrinted = prettyPrinted;
+        this.compressed = compressed;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public boolean isPrettyPrinted() {
+        return prettyPrinted;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    public static boolean isDBFile(String fileName) {
+        return Arrays.stream(values()).anyMatch(format -> fileName.endsWith(format.extension));
+    }
+
+    // pretty and minified files share an extension, both are read the same way
+    public static boolean isCompressed(String fileName) {
+        return fileName.endsWith(GZIP.extension);
+    }
+}
@@ -1,44 +1,108 @@
 package ro.cofi.relicdb.io;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
-import org.apache.commons.io.monitor.FileAlterationListener;
-import org.apache.commons.io.monitor.FileAlterationListenerAdaptor;
-import org.apache.commons.io.monitor.FileAlterationMonitor;
-import org.apache.commons.io.monitor.FileAlterationObserver;
+import com.google.gson.stream.JsonWriter;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import ro.cofi.relicdb.LoadedDB;
+import ro.cofi.relicdb.model.DBModel;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 public class DBFileManager {
 
     private static final Logger LOGGER = LogManager.getLogger(DBFileManager.class);
-    private static final Gson PRETTY_GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final Gson GSON = new Gson();
 
-    private static final String STORAGE_DIR = "RelicDBVersions";
+    private static final Path DEFAULT_STORAGE_DIR = Path.of("RelicDBVersions");
     private static final long POLL_INTERVAL = 1000;
+    private static final long DEBOUNCE_INTERVAL = 250;
+    private static final long MAX_DISPATCH_DELAY = 2000;
+    private static final String MANIFEST_EXTENSION = ".manifest";
+    private static final String BASES_EXTENSION = ".bases";
+    private static final int MAX_CACHED_DBS = 4;
+    private static final long MAX_CACHED_DB_SIZE = Runtime.getRuntime().maxMemory() / 4;
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+    private static final String PRETTY_INDENT = "  ";
+    private static final long SNAPSHOT_SHUTDOWN_TIMEOUT = 10;
+
+    private final Path storageDir;
+    private final DirectoryMonitor monitor;
+    private final VersionManifest manifest;
+    private final LoadedDBCache loadedDBCache = new LoadedDBCache(MAX_CACHED_DBS, MAX_CACHED_DB_SIZE);
+    private final DBVersionStore versionStore;
+    // snapshots are best-effort - when loading many versions, skip them instead of queueing every model
+    private final ExecutorService snapshotExecutor = new ThreadPoolExecutor(
+        1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1),
+        runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        },
+        new ThreadPoolExecutor.DiscardPolicy()
+    );
+    private final List<Consumer<ChoiceChanges>> directoryListeners = Collections.synchronizedList(new ArrayList<>());
+
+    private final DBFileFormat storeFormat;
+
+    public DBFileManager() {
+        this(DBFileFormat.PRETTY);
+    }
 
-    private final FileAlterationObserver observer = new FileAlterationObserver(STORAGE_DIR);
-    private final FileAlterationMonitor monitor = new FileAlterationMonitor(POLL_INTERVAL);
-    private final List<Runnable> directoryListeners = Collections.synchronizedList(new ArrayList<>());
+    public DBFileManager(DBFileFormat storeFormat) {
+        this(DEFAULT_STORAGE_DIR, storeFormat);
+    }
 
-    private long lastDirectoryChangeTimestamp;
+    // the manifest, the snapshots and the bases of deltas are kept next to the storage directory, not inside it
+    public DBFileManager(Path storageDir, DBFileFormat storeFormat) {
+        this.storageDir = storageDir;
+        this.storeFormat = storeFormat;
+
+        monitor = new DirectoryMonitor(
+            storageDir, DBFileFormat::isDBFile, // ignore temporary files
+            DEBOUNCE_INTERVAL, MAX_DISPATCH_DELAY, POLL_INTERVAL, this::fireListeners
+        );
+        manifest = new VersionManifest(
+            storageDir, storageDir.resolveSibling(storageDir.getFileName() + MANIFEST_EXTENSION)
+        );
+        versionStore = new DBVersionStore(
+            storageDir.resolveSibling(storageDir.getFileName() + BASES_EXTENSION), this::openReader
+        );
+    }
 
     public List<DBChoice> discoverChoices() {
-        List<DBChoice> choices = createChoices();
-
-        lastDirectoryChangeTimestamp = System.currentTimeMillis();
+        // the manifest already knows every version, only changes since the last run are looked at
+        List<DBChoice> choices = manifest.getChoices();
 
         if (choices.isEmpty())
             return Collections.singletonList(DBChoice.DUMMY);
@@ -46,116 +110,208 @@ public class DBFileManager {
         return choices;
     }
 
-    private List<DBChoice> createChoices() {
-        // if the storage directory does not exist, or if it is empty, return a dummy choice
-        File storageDir = new File(STORAGE_DIR);
-        if (!storageDir.exists())
-            return Collections.emptyList();
-
-        File[] files = storageDir.listFiles();
-        if (files == null)
-            return Collections.emptyList();
-
-        // otherwise, return a list of choices
-        return Arrays.stream(files)
-            .filter(file -> file.getName().endsWith(".json")) // only search for .json files
-            .map(file -> { // map each file to a DBChoice
-                BasicFileAttributes attr;
-
-                try {
-                    attr = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
-                } catch (IOException e) {
-                    LOGGER.error(String.format("Could not read attributes for file %s", file.getName()), e);
-                    return null;
-                }
-
-                return new DBChoice(file, attr.lastModifiedTime().toMillis());
-            })
-            .filter(Objects::nonNull) // filter out null values
-            .sorted() // sort by last modified date
-            .toList();
+    public List<DBChoice> getStoredChoices() {
+        return manifest.getChoices();
     }
 
     public String storeDBFile(JsonObject data) throws IOException {
         // write the file to the storage directory - its name will be the current timestamp
-        File storageDir = new File(STORAGE_DIR);
-        if (!storageDir.exists() && !storageDir.mkdir())
-            throw new IOException(String.format("Could not create storage directory %s", STORAGE_DIR));
+        if (!Files.isDirectory(storageDir) && !storageDir.toFile().mkdir())
+            throw new IOException(String.format("Could not create storage directory %s", storageDir));
 
         long timestamp = System.currentTimeMillis();
 
-        File dbFile = new File(STORAGE_DIR, String.format("%d.json", timestamp));
+        // most scrapes only change a few characters, so store them as a delta against the latest base if possible
+        JsonObject delta = versionStore.encode(data, manifest.getChoices());
+        String marker = delta != null ? DBVersionStore.DELTA_MARKER : "";
+
+        File dbFile = storageDir.resolve(timestamp + marker + storeFormat.getExtension()).toFile();
+        Path tempFile = null;
 
         try {
-            // write with pretty printing
-            Files.writeString(dbFile.toPath(), PRETTY_GSON.toJson(data));
+            // the directory monitor ignores temporary files, so it never sees a partially written DB
+            tempFile = Files.createTempFile(storageDir, String.valueOf(timestamp), ".tmp");
+
+            try (JsonWriter writer = openWriter(tempFile)) {
+                GSON.toJson(delta != null ? delta : data, writer);
+            }
+
+            Files.move(tempFile, dbFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
         } catch (IOException e) {
             throw new IOException("Could not write DB file", e);
+        } finally {
+            deleteQuietly(tempFile);
         }
 
-        lastDirectoryChangeTimestamp = System.currentTimeMillis();
+        // index the new version right away - when the monitor reports it, it will already be known and not notify
+        manifest.update(Set.of(dbFile.getName()));
 
         return dbFile.getAbsolutePath();
     }
 
     public LoadedDB loadDBFile(DBChoice choice) throws IOException {
+        return loadDBFile(choice, true);
+    }
+
+    // bulk loads should not cache their results, as they would evict the versions in use
+    public LoadedDB loadDBFile(DBChoice choice, boolean cacheResult) throws IOException {
+        if (choice.getFile() == null)
+            return null;
+
+        LoadedDB loadedDB = loadedDBCache.get(choice);
+        if (loadedDB != null)
+            return loadedDB;
+
+        loadedDB = readDBFile(choice);
+
+        if (cacheResult)
+            loadedDBCache.put(choice, loadedDB);
+
+        return loadedDB;
+    }
+
+    private LoadedDB readDBFile(DBChoice choice) throws IOException {
         try {
             File file = choice.getFile();
-            if (file == null)
-                return null;
 
-            JsonObject data = PRETTY_GSON.fromJson(Files.readString(choice.getFile().toPath()), JsonObject.class);
-            return new LoadedDB(data, choice);
+            Path path = file.toPath();
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+
+            // the manifest trusts its entries at startup, so a version edited while the app was closed is noticed here
+            if (attributes.lastModifiedTime().toMillis() != choice.getLastModifiedTimestamp())
+                monitor.reportChange(file.getName());
+
+            // the JSON stays the source of truth, the snapshot is only used while it matches
+            DBModel model = DBSnapshot.read(path, attributes);
+            if (model != null)
+                return new LoadedDB(model, choice);
+
+            DBVersionStore.Rebuilt rebuilt = DBVersionStore.isDelta(file)
+                ? versionStore.rebuild(file)
+                : new DBVersionStore.Rebuilt(readFull(file), null, null);
+
+            // the model is immutable, so the snapshot can be written without delaying the load
+            Path baseFile = rebuilt.baseFile() != null ? rebuilt.baseFile().toPath() : null;
+            snapshotExecutor.execute(() -> DBSnapshot.write(
+                path, attributes, baseFile, rebuilt.baseAttributes(), rebuilt.model()
+            ));
+
+            return new LoadedDB(rebuilt.model(), choice);
         } catch (IOException e) {
             throw new IOException("Could not read DB file", e);
         }
     }
 
-    public void openExplorer(DBChoice choice) throws IOException {
-        Runtime.getRuntime().exec("explorer.exe /select," + choice.getFile().getAbsolutePath());
+    private DBModel readFull(File file) throws IOException {
+        try (Reader reader = openReader(file)) {
+            return DBModelReader.read(reader);
+        }
     }
 
-    public void initDirectoryMonitor() throws Exception {
-        FileAlterationListener listener = new FileAlterationListenerAdaptor() {
-            @Override
-            public void onFileCreate(File file) {
-                fireListeners();
-            }
+    private Reader openReader(File file) throws IOException {
+        // closing the reader also closes the channel
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
 
-            @Override
-            public void onFileDelete(File file) {
-                fireListeners();
-            }
+        if (!DBFileFormat.isCompressed(file.getName()))
+            return new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8), READ_BUFFER_SIZE);
 
-            @Override
-            public void onFileChange(File file) {
-                fireListeners();
-            }
-        };
+        InputStream in = new GZIPInputStream(Channels.newInputStream(channel), READ_BUFFER_SIZE);
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), READ_BUFFER_SIZE);
+    }
 
-        observer.addListener(listener);
-        monitor.addObserver(observer);
+    private JsonWriter openWriter(Path file) throws IOException {
+        // closing the writer flushes everything and syncs the file to disk
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        OutputStream out = new BufferedOutputStream(new SyncingOutputStream(channel), WRITE_BUFFER_SIZE);
+        if (storeFormat.isCompressed())
+            out = new GZIPOutputStream(out, WRITE_BUFFER_SIZE);
+
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        if (storeFormat.isPrettyPrinted())
+            writer.setIndent(PRETTY_INDENT);
+
+        return writer;
+    }
+
+    private void deleteQuietly(Path file) {
+        if (file == null)
+            return;
+
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.warn(String.format("Could not delete temporary file %s", file), e);
+        }
+    }
+
+    public void openExplorer(DBChoice choice) throws IOException {
+        Runtime.getRuntime().exec("explorer.exe /select," + choice.getFile().getAbsolutePath());
+    }
+
+    public void initDirectoryMonitor() throws IOException {
         monitor.start();
     }
 
-    public void addDirectoryListener(Runnable listener) {
+    public void addDirectoryListener(Consumer<ChoiceChanges> listener) {
         directoryListeners.add(listener);
     }
 
-    private void fireListeners() {
-        long currentTime = System.currentTimeMillis();
-        if (currentTime - lastDirectoryChangeTimestamp < POLL_INTERVAL)
+    public void removeDirectoryListener(Consumer<ChoiceChanges> listener) {
+        directoryListeners.remove(listener);
+    }
+
+    // runs on the monitor's dispatcher thread, once per burst of changes
+    private void fireListeners(Set<String> changedFileNames) {
+        ChoiceChanges changes = manifest.update(changedFileNames);
+        if (changes.isEmpty())
             return;
 
-        lastDirectoryChangeTimestamp = currentTime;
-        directoryListeners.forEach(Runnable::run);
+        // a modified version is also removed, under its old timestamp
+        changes.removed().forEach(loadedDBCache::invalidate);
+
+        if (!changes.removed().isEmpty())
+            versionStore.pruneBases(manifest.getChoices());
+
+        directoryListeners.forEach(listener -> listener.accept(changes));
     }
 
     public void shutdown() {
+        snapshotExecutor.shutdown();
+        monitor.stop();
+
+        // short runs would otherwise exit before their snapshot is written, and pay for a full parse every time
         try {
-            monitor.stop();
-        } catch (Exception e) {
-            LOGGER.error("Could not stop directory monitor", e);
+            if (!snapshotExecutor.awaitTermination(SNAPSHOT_SHUTDOWN_TIMEOUT, TimeUnit.SECONDS))
+                LOGGER.warn("Gave up waiting for the snapshot writer");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class SyncingOutputStream extends FilterOutputStream {
+
+        private final FileChannel channel;
+
+        SyncingOutputStream(FileChannel channel) {
+            super(Channels.newOutputStream(channel));
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
         }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                out.flush();
+                channel.force(true);
+            } finally {
+                out.close();
+            }
+        }
+
     }
 }
@@ -0,0 +1,151 @@
+package ro.cofi.relicdb.io;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import ro.cofi.relicdb.logic.RelicType;
+import ro.cofi.relicdb.model.CharacterEntry;
+import ro.cofi.relicdb.model.DBModel;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+public class DBModelReader {
+
+    private static final int CHUNK_SIZE = 32;
+
+    // bounds the number of parsed, but not yet compiled characters held in memory
+    private static final int MAX_PENDING_CHUNKS = Runtime.getRuntime().availableProcessors() * 2;
+
+    private DBModelReader() { }
+
+    public static DBModel read(Reader reader) throws IOException {
+        return read(reader, null);
+    }
+
+    // the characters of a delta may be content hashes, which are replaced by the matching characters of its base
+    static DBModel read(Reader reader, DBVersionStore.BaseResolver baseResolver) throws IOException {
+        DBModel.Builder builder = new DBModel.Builder();
+        Map<String, JsonObject> baseCharacters = null;
+
+        // the reader is owned by the caller, so the JSON reader is not closed
+        JsonReader jsonReader = new JsonReader(reader);
+
+        try {
+            jsonReader.beginObject();
+
+            while (jsonReader.hasNext()) {
+                String key = jsonReader.nextName();
+                RelicType weaponType = Arrays.stream(RelicType.values())
+                    .filter(type -> type.getJsonKey().equals(key))
+                    .findFirst()
+                    .orElse(null);
+
+                if (key.equals(DBModel.SCHEMA_VERSION_KEY))
+                    builder.setSchemaVersion(jsonReader.nextInt());
+                else if (weaponType != null)
+                    builder.setWeaponNames(weaponType, readStrings(jsonReader));
+                else if (key.equals(DBVersionStore.BASE_KEY) && baseResolver != null)
+                    baseCharacters = baseResolver.resolve(jsonReader.nextString());
+                else if (key.equals("characters"))
+                    readCharacters(jsonReader, builder, baseCharacters);
+                else
+                    jsonReader.skipValue();
+            }
+
+            jsonReader.endObject();
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            throw new IOException("Malformed DB file", e);
+        }
+
+        return builder.build();
+    }
+
+    private static List<String> readStrings(JsonReader jsonReader) throws IOException {
+        List<String> strings = new ArrayList<>();
+
+        jsonReader.beginArray();
+        while (jsonReader.hasNext())
+            strings.add(jsonReader.nextString());
+        jsonReader.endArray();
+
+        return strings;
+    }
+
+    private static void readCharacters(
+        JsonReader jsonReader, DBModel.Builder builder, Map<String, JsonObject> baseCharacters
+    ) throws IOException {
+        Deque<Future<List<CharacterEntry>>> pendingChunks = new ArrayDeque<>();
+        int nextId = 0;
+
+        jsonReader.beginArray();
+
+        while (jsonReader.hasNext()) {
+            // tokenizing is sequential, but each chunk of parsed characters is compiled in parallel
+            List<JsonElement> chunk = new ArrayList<>(CHUNK_SIZE);
+            while (chunk.size() < CHUNK_SIZE && jsonReader.hasNext())
+                chunk.add(resolveCharacter(JsonParser.parseReader(jsonReader), baseCharacters));
+
+            int firstId = nextId;
+            nextId += chunk.size();
+
+            pendingChunks.add(CompletableFuture.supplyAsync(() -> compileChunk(builder, firstId, chunk)));
+
+            if (pendingChunks.size() >= MAX_PENDING_CHUNKS)
+                addChunk(builder, pendingChunks.poll());
+        }
+
+        jsonReader.endArray();
+
+        // chunks are added in order, so IDs stay consecutive
+        while (!pendingChunks.isEmpty())
+            addChunk(builder, pendingChunks.poll());
+    }
+
+    private static JsonElement resolveCharacter(JsonElement character, Map<String, JsonObject> baseCharacters)
+        throws IOException {
+        if (!character.isJsonPrimitive())
+            return character;
+
+        if (baseCharacters == null)
+            throw new IOException("Found a reference to a base character, outside of a delta");
+
+        JsonObject baseCharacter = baseCharacters.get(character.getAsString());
+        if (baseCharacter == null)
+            throw new IOException("Found a reference to a character missing from the base");
+
+        return baseCharacter;
+    }
+
+    private static List<CharacterEntry> compileChunk(DBModel.Builder builder, int firstId, List<JsonElement> chunk) {
+        List<CharacterEntry> characters = new ArrayList<>(chunk.size());
+
+        for (int i = 0; i < chunk.size(); i++)
+            characters.add(builder.compileCharacter(firstId + i, chunk.get(i).getAsJsonObject()));
+
+        return characters;
+    }
+
+    private static void addChunk(DBModel.Builder builder, Future<List<CharacterEntry>> chunk) throws IOException {
+        try {
+            chunk.get().forEach(builder::addCharacter);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading characters");
+        } catch (ExecutionException e) {
+            throw new IOException("Could not compile character", e.getCause());
+        }
+    }
+
+}
@@ -1,35 +1,114 @@
 package ro.cofi.relicdb.io;
 
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jsoup.Connection;
+import org.jsoup.HttpStatusException;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
+import ro.cofi.relicdb.logic.Stat;
+import ro.cofi.relicdb.model.DBModel;
+import ro.cofi.relicdb.model.StatOptions;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Method;
+import java.net.HttpURLConnection;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class DBScraper {
 
+    private static final Logger LOGGER = LogManager.getLogger(DBScraper.class);
+
     private static final String URL_ROOT = "https://genshin.gg";
-    private static final String URL_STAR_RAIL = URL_ROOT + "/star-rail";
-    private static final String URL_RELICS = URL_STAR_RAIL + "/relics";
-    private static final String URL_ORNAMENTS = URL_STAR_RAIL + "/planar-ornaments";
+    private static final String PATH_STAR_RAIL = "/star-rail";
+    private static final String PATH_RELICS = PATH_STAR_RAIL + "/relics";
+    private static final String PATH_ORNAMENTS = PATH_STAR_RAIL + "/planar-ornaments";
+
+    private static final String CACHE_DIR = "RelicDBCache";
+    private static final int DEFAULT_PARALLELISM = 8;
+    private static final double DEFAULT_REQUESTS_PER_SECOND = 10;
 
     private static final String MAIN_STAT_BODY = "Body";
     private static final String MAIN_STAT_FEET = "Feet";
     private static final String MAIN_STAT_PLANAR_SPHERE = "Planar Sphere";
     private static final String MAIN_STAT_LINK_ROPE = "Link Rope";
+    // cached fragments are only reused if they were parsed into the current schema
+    private static final int FRAGMENT_VERSION = DBModel.CURRENT_SCHEMA_VERSION;
+
     private static final Pattern MAIN_STAT_PATTERN = Pattern.compile("<b>(.+)</b>\\s*(.*)");
 
+    private final String urlStarRail;
+    private final String urlRelics;
+    private final String urlOrnaments;
+    private final int parallelism;
+    private final HostRateLimiter rateLimiter;
+    private final PageCache pageCache;
+
+    private final AtomicInteger requestedPages = new AtomicInteger();
+    private final AtomicInteger reusedPages = new AtomicInteger();
+
+    public DBScraper() {
+        this(URL_ROOT, DEFAULT_PARALLELISM, DEFAULT_REQUESTS_PER_SECOND, new PageCache(Path.of(CACHE_DIR)));
+    }
+
+    public DBScraper(String urlRoot, int parallelism, double requestsPerSecond, PageCache pageCache) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("The parallelism must be positive");
+
+        this.urlStarRail = urlRoot + PATH_STAR_RAIL;
+        this.urlRelics = urlRoot + PATH_RELICS;
+        this.urlOrnaments = urlRoot + PATH_ORNAMENTS;
+        this.parallelism = parallelism;
+        this.rateLimiter = new HostRateLimiter(requestsPerSecond, parallelism);
+        this.pageCache = pageCache;
+    }
+
     public JsonObject scrape() throws IOException {
         JsonObject rootObject = new JsonObject();
 
+        requestedPages.set(0);
+        reusedPages.set(0);
+
+        rootObject.addProperty(DBModel.SCHEMA_VERSION_KEY, DBModel.CURRENT_SCHEMA_VERSION);
         rootObject.add("relics", scrapeRelics());
         rootObject.add("ornaments", scrapeOrnaments());
-        rootObject.add("characters", scrapeCharacters());
+
+        JsonArray characters = scrapeCharacters();
+        rootObject.add("characters", characters);
+
+        // stats that could not be resolved are kept as text - record them so that aliases can be added
+        Set<String> unresolvedStats = collectUnresolvedStats(characters);
+        JsonArray unresolvedStatsArray = new JsonArray();
+        unresolvedStats.forEach(unresolvedStatsArray::add);
+        rootObject.add("unresolvedStats", unresolvedStatsArray);
+
+        if (!unresolvedStats.isEmpty())
+            LOGGER.warn("Could not resolve the following stats: {}", unresolvedStats);
+
+        LOGGER.info("Requested {} pages, {} of which were unchanged", requestedPages.get(), reusedPages.get());
+
+        // only once every page was scraped, so a failed scrape never loses cached pages
+        List<String> scrapedURLs = new ArrayList<>(List.of(urlStarRail, urlRelics, urlOrnaments));
+        characters.forEach(character -> scrapedURLs.add(character.getAsJsonObject().get("url").getAsString()));
+        pageCache.retainOnly(scrapedURLs);
 
         return rootObject;
     }
@@ -37,41 +116,173 @@ public class DBScraper {
     private JsonArray scrapeCharacters() throws IOException {
         JsonArray characterArray = new JsonArray();
 
-        Document doc = Jsoup.connect(URL_STAR_RAIL).get();
+        JsonArray characters = scrapePage(urlStarRail, this::scrapeCharacterList).getAsJsonArray();
+
+        ExecutorService executor = createExecutor();
+        Semaphore permits = new Semaphore(parallelism);
+
+        try {
+            List<Future<JsonObject>> futures = new ArrayList<>(characters.size());
+
+            for (JsonElement character : characters) {
+                futures.add(executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        return scrapeCharacter(character.getAsJsonObject());
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+
+            // collect in submission order, to keep the site's character ordering
+            for (Future<JsonObject> future : futures)
+                characterArray.add(awaitCharacter(future));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return characterArray;
+    }
+
+    private JsonObject awaitCharacter(Future<JsonObject> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while scraping characters");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException)
+                throw ioException;
+
+            throw new IOException("Could not scrape character", e.getCause());
+        }
+    }
+
+    private ExecutorService createExecutor() {
+        // virtual threads are only available on newer JDKs - the semaphore bounds them to the parallelism
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger threadCount = new AtomicInteger();
+
+            return Executors.newFixedThreadPool(parallelism, runnable -> {
+                Thread thread = new Thread(runnable, "scraper-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private JsonElement scrapePage(String url, PageParser parser) throws IOException {
+        PageCache.Entry cached = pageCache.get(url);
+
+        Connection connection = Jsoup.connect(url).ignoreHttpErrors(true);
+
+        // send the validators of the cached page, so that the server can answer with 304 Not Modified
+        if (cached != null && cached.etag() != null)
+            connection.header("If-None-Match", cached.etag());
+        if (cached != null && cached.lastModified() != null)
+            connection.header("If-Modified-Since", cached.lastModified());
+
+        rateLimiter.acquire(url);
+        requestedPages.incrementAndGet();
+
+        Connection.Response response = connection.execute();
+
+        String html;
+        String contentHash;
+
+        if (response.statusCode() == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+            if (cached.hasFragment(cached.contentHash(), FRAGMENT_VERSION)) {
+                reusedPages.incrementAndGet();
+                return cached.fragment();
+            }
+
+            // the page did not change, but it was parsed by an older scraper
+            html = pageCache.getHTML(url);
+            contentHash = cached.contentHash();
+        } else if (response.statusCode() == HttpURLConnection.HTTP_OK) {
+            html = response.body();
+            contentHash = PageCache.hash(html);
+
+            // some servers do not send validators, but the content may still be the same
+            if (cached != null && cached.hasFragment(contentHash, FRAGMENT_VERSION)) {
+                reusedPages.incrementAndGet();
+                pageCache.put(withValidators(cached, response), null);
+                return cached.fragment();
+            }
+        } else {
+            throw new HttpStatusException("HTTP error fetching URL", response.statusCode(), url);
+        }
+
+        JsonElement fragment = parser.parse(Jsoup.parse(html, url));
+
+        pageCache.put(new PageCache.Entry(
+            url, response.header("ETag"), response.header("Last-Modified"), contentHash,
+            FRAGMENT_VERSION, fragment
+        ), html);
+
+        return fragment;
+    }
+
+    private PageCache.Entry withValidators(PageCache.Entry cached, Connection.Response response) {
+        return new PageCache.Entry(
+            cached.url(), response.header("ETag"), response.header("Last-Modified"), cached.contentHash(),
+            cached.fragmentVersion(), cached.fragment()
+        );
+    }
+
+    private JsonArray scrapeCharacterList(Document doc) throws IOException {
+        JsonArray characterArray = new JsonArray();
 
         Elements characters = selectNonEmptyElements(
             doc, ".character-portrait", "Could not find the character list"
         );
 
-        for (Element character : characters)
-            characterArray.add(scrapeCharacter(character));
+        for (Element character : characters) {
+            JsonObject characterObject = new JsonObject();
+
+            Element characterName = selectNonNullElement(
+                character, ".character-name", "Could not find the character name"
+            );
+
+            characterObject.addProperty("name", characterName.text());
+            characterObject.addProperty("url", character.absUrl("href"));
+
+            characterArray.add(characterObject);
+        }
 
         return characterArray;
     }
 
-    private JsonObject scrapeCharacter(Element character) throws IOException {
+    private JsonObject scrapeCharacter(JsonObject character) throws IOException {
         JsonObject characterObject = new JsonObject();
 
-        Element characterName = selectNonNullElement(
-            character, ".character-name", "Could not find the character name"
-        );
+        characterObject.add("name", character.get("name"));
+        characterObject.add("url", character.get("url"));
 
-        characterObject.addProperty("name", characterName.text());
+        String characterURL = character.get("url").getAsString();
 
-        String characterURL = character.absUrl("href");
+        // the name and URL come from the character list, everything else from the character page
+        JsonObject buildObject = scrapePage(characterURL, this::scrapeCharacterBuild).getAsJsonObject();
+        buildObject.entrySet().forEach(entry -> characterObject.add(entry.getKey(), entry.getValue()));
 
-        characterObject.addProperty("url", characterURL);
+        return characterObject;
+    }
 
-        Document doc = Jsoup.connect(characterURL).get();
+    private JsonObject scrapeCharacterBuild(Document doc) throws IOException {
+        JsonObject buildObject = new JsonObject();
 
         Elements buildSections = doc.select(".character-info-build-section");
 
-        characterObject.add("relics", scrapeCharacterRelics(buildSections));
-        characterObject.add("ornaments", scrapeCharacterOrnaments(buildSections));
-        characterObject.add("mainStats", scrapeMainStats(buildSections));
-        characterObject.add("subStats", scrapeSubStats(buildSections));
+        buildObject.add("relics", scrapeCharacterRelics(buildSections));
+        buildObject.add("ornaments", scrapeCharacterOrnaments(buildSections));
+        buildObject.add("mainStats", scrapeMainStats(buildSections));
+        buildObject.add("subStats", scrapeSubStats(buildSections));
 
-        return characterObject;
+        return buildObject;
     }
 
     private JsonArray scrapeCharacterRelics(Elements buildSections) throws IOException {
@@ -154,15 +365,15 @@ public class DBScraper {
             mainStatsSection, ".character-info-stats-item", "Could not find main stats"
         );
 
-        mainStatsObject.addProperty("body", scrapeMainStat(mainStats, MAIN_STAT_BODY));
-        mainStatsObject.addProperty("feet", scrapeMainStat(mainStats, MAIN_STAT_FEET));
-        mainStatsObject.addProperty("planarSphere", scrapeMainStat(mainStats, MAIN_STAT_PLANAR_SPHERE));
-        mainStatsObject.addProperty("linkRope", scrapeMainStat(mainStats, MAIN_STAT_LINK_ROPE));
+        mainStatsObject.add("body", scrapeMainStat(mainStats, MAIN_STAT_BODY));
+        mainStatsObject.add("feet", scrapeMainStat(mainStats, MAIN_STAT_FEET));
+        mainStatsObject.add("planarSphere", scrapeMainStat(mainStats, MAIN_STAT_PLANAR_SPHERE));
+        mainStatsObject.add("linkRope", scrapeMainStat(mainStats, MAIN_STAT_LINK_ROPE));
 
         return mainStatsObject;
     }
 
-    private String scrapeMainStat(Elements mainStats, String stat) throws IOException {
+    private JsonArray scrapeMainStat(Elements mainStats, String stat) throws IOException {
         Element mainStat = mainStats.stream()
             .filter(element -> element.text().contains(stat))
             .findFirst()
@@ -178,7 +389,7 @@ public class DBScraper {
         if (!matcher.matches())
             throw new IOException(String.format("Could not parse the \"%s\" main stat%n%s", stat, mainStat.html()));
 
-        return matcher.group(2);
+        return resolveStats(matcher.group(2));
     }
 
     private JsonArray scrapeSubStats(Elements buildSections) throws IOException {
@@ -191,23 +402,58 @@ public class DBScraper {
         );
 
         for (Element subStat : subStats)
-            subStatsArray.add(subStat.text());
+            subStatsArray.add(resolveStats(subStat.text()));
 
         return subStatsArray;
     }
 
+    private JsonArray resolveStats(String text) {
+        JsonArray statsArray = new JsonArray();
+
+        // the text is of the form
+        // [stat] / [stat] / ...
+        // store the canonical name of each stat, or the text itself if it cannot be resolved
+        for (String statName : text.split(StatOptions.SEPARATOR)) {
+            Stat stat = Stat.fromName(statName);
+            statsArray.add(stat != null ? stat.name() : statName);
+        }
+
+        return statsArray;
+    }
+
+    private Set<String> collectUnresolvedStats(JsonArray characters) {
+        Set<String> unresolvedStats = new TreeSet<>();
+
+        for (JsonElement character : characters) {
+            JsonObject characterObject = character.getAsJsonObject();
+
+            List<JsonElement> statOptions = new ArrayList<>();
+            characterObject.getAsJsonObject("mainStats").entrySet().forEach(entry -> statOptions.add(entry.getValue()));
+            characterObject.getAsJsonArray("subStats").forEach(statOptions::add);
+
+            for (JsonElement options : statOptions)
+                for (JsonElement option : options.getAsJsonArray())
+                    if (Stat.fromId(option.getAsString()) == null)
+                        unresolvedStats.add(option.getAsString());
+        }
+
+        return unresolvedStats;
+    }
+
     private JsonArray scrapeRelics() throws IOException {
-        return scrapeWeapons(URL_RELICS, "relic");
+        return scrapeWeapons(urlRelics, "relic");
     }
 
     private JsonArray scrapeOrnaments() throws IOException {
-        return scrapeWeapons(URL_ORNAMENTS, "ornament");
+        return scrapeWeapons(urlOrnaments, "ornament");
     }
 
     private JsonArray scrapeWeapons(String url, String type) throws IOException {
-        JsonArray relicsArray = new JsonArray();
+        return scrapePage(url, doc -> scrapeWeapons(doc, type)).getAsJsonArray();
+    }
 
-        Document doc = Jsoup.connect(url).get();
+    private JsonArray scrapeWeapons(Document doc, String type) throws IOException {
+        JsonArray relicsArray = new JsonArray();
 
         Elements relicItems = selectNonEmptyElements(
             doc, ".light-cones-item", String.format("Could not find %s items", type)
@@ -258,4 +504,9 @@ public class DBScraper {
         return selectedElement;
     }
 
+    @FunctionalInterface
+    private interface PageParser {
+        JsonElement parse(Document doc) throws IOException;
+    }
+
 }
@@ -0,0 +1,431 @@
+package ro.cofi.relicdb.io;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ro.cofi.relicdb.logic.RelicPart;
+import ro.cofi.relicdb.logic.RelicType;
+import ro.cofi.relicdb.logic.Stat;
+import ro.cofi.relicdb.model.CharacterEntry;
+import ro.cofi.relicdb.model.DBModel;
+import ro.cofi.relicdb.model.StatOptions;
+import ro.cofi.relicdb.model.WeaponOption;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+// binary sidecar of a JSON DB version, laid out as:
+// - header: magic, format version, last modified time, size and SHA-256 of the JSON file, stat fingerprint, then
+//   the same for the base of a delta, and the path of that base - empty for a full version
+// - string table: every name, URL and stat text, referenced by index from here on
+// - set table, weapon name lists and character records, all as ints
+public class DBSnapshot {
+
+    private static final Logger LOGGER = LogManager.getLogger(DBSnapshot.class);
+
+    public static final String EXTENSION = ".snapshot";
+    public static final String DIRECTORY_EXTENSION = ".snapshots";
+
+    private static final int MAGIC = 0x52444253; // "RDBS"
+    private static final int FORMAT_VERSION = 3;
+    private static final int HASH_LENGTH = 32;
+    private static final long LAST_MODIFIED_OFFSET = 2L * Integer.BYTES;
+    private static final long BASE_LAST_MODIFIED_OFFSET = LAST_MODIFIED_OFFSET + 3L * Long.BYTES + HASH_LENGTH;
+    // stat IDs are stored as Stat ordinals, which are only meaningful for the same list of stats
+    private static final long STAT_FINGERPRINT = fingerprint(
+        Arrays.stream(Stat.values()).map(Stat::name).collect(Collectors.joining(","))
+    );
+    private static final List<RelicPart> MAIN_STAT_PARTS = Arrays.stream(RelicPart.values())
+        .filter(part -> part.getJsonKey() != null)
+        .toList();
+
+    private DBSnapshot() { }
+
+    // kept next to the versions directory, so that writing a snapshot does not change the directory
+    public static Path sidecarOf(Path jsonFile) {
+        Path absoluteFile = jsonFile.toAbsolutePath();
+        return directoryOf(absoluteFile.getParent()).resolve(absoluteFile.getFileName() + EXTENSION);
+    }
+
+    public static Path directoryOf(Path versionsDir) {
+        Path absoluteDir = versionsDir.toAbsolutePath();
+        return absoluteDir.resolveSibling(absoluteDir.getFileName() + DIRECTORY_EXTENSION);
+    }
+
+    // returns null if there is no usable snapshot for the JSON file
+    public static DBModel read(Path jsonFile, BasicFileAttributes attributes) {
+        Path snapshotFile = sidecarOf(jsonFile);
+
+        try {
+            // read onto the heap - a mapping would keep the file locked on Windows until it is collected, and the
+            // snapshot could not be replaced meanwhile
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(snapshotFile));
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION)
+                return null;
+
+            FileStamp jsonStamp = readStamp(buffer);
+            if (buffer.getLong() != STAT_FINGERPRINT)
+                return null;
+
+            FileStamp baseStamp = readStamp(buffer);
+            String basePath = readString(buffer);
+
+            if (!isUnchanged(snapshotFile, LAST_MODIFIED_OFFSET, jsonFile, attributes, jsonStamp))
+                return null;
+
+            // a delta is only as current as its base
+            if (!basePath.isEmpty()) {
+                Path baseFile = Path.of(basePath);
+                BasicFileAttributes baseAttributes = Files.readAttributes(baseFile, BasicFileAttributes.class);
+
+                if (!isUnchanged(snapshotFile, BASE_LAST_MODIFIED_OFFSET, baseFile, baseAttributes, baseStamp))
+                    return null;
+            }
+
+            return readModel(buffer);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn(String.format("Ignoring unreadable snapshot %s", snapshotFile), e);
+            return null;
+        }
+    }
+
+    // the attributes must have been read before the JSON file, and its base if it is a delta, were parsed
+    // the files are hashed here, so if either changed since, the hash could describe data the model was not built
+    // from - in that case, no snapshot is written
+    public static void write(
+        Path jsonFile, BasicFileAttributes attributes, Path baseFile, BasicFileAttributes baseAttributes,
+        DBModel model
+    ) {
+        Path snapshotFile = sidecarOf(jsonFile);
+        Path tempFile = null;
+
+        try {
+            byte[] jsonHash = hash(jsonFile);
+            byte[] baseHash = baseFile != null ? hash(baseFile) : new byte[HASH_LENGTH];
+
+            if (isReplaced(jsonFile, attributes) || baseFile != null && isReplaced(baseFile, baseAttributes)) {
+                LOGGER.debug("Not writing snapshot {}, as its version changed while loading", snapshotFile);
+                return;
+            }
+
+            Files.createDirectories(snapshotFile.getParent());
+            tempFile = Files.createTempFile(snapshotFile.getParent(), snapshotFile.getFileName().toString(), ".tmp");
+
+            OutputStream fileOut = Files.newOutputStream(tempFile);
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                writeStamp(out, attributes, jsonHash);
+                out.writeLong(STAT_FINGERPRINT);
+                writeStamp(out, baseAttributes, baseHash);
+                writeString(out, baseFile != null ? baseFile.toAbsolutePath().toString() : "");
+
+                writeModel(out, model);
+            }
+
+            Files.move(tempFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn(String.format("Could not write snapshot %s", snapshotFile), e);
+        } finally {
+            deleteQuietly(tempFile);
+        }
+    }
+
+    // a touched, but unchanged file only needs its timestamp refreshed
+    private static boolean isUnchanged(
+        Path snapshotFile, long lastModifiedOffset, Path file, BasicFileAttributes attributes, FileStamp stamp
+    ) throws IOException {
+        if (stamp.size() != attributes.size())
+            return false;
+
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        if (stamp.lastModified() == lastModified)
+            return true;
+
+        if (!Arrays.equals(stamp.hash(), hash(file)))
+            return false;
+
+        refreshLastModified(snapshotFile, lastModifiedOffset, lastModified);
+        return true;
+    }
+
+    private static boolean isReplaced(Path file, BasicFileAttributes attributes) throws IOException {
+        BasicFileAttributes current = Files.readAttributes(file, BasicFileAttributes.class);
+
+        return !current.lastModifiedTime().equals(attributes.lastModifiedTime())
+            || current.size() != attributes.size()
+            || !Objects.equals(current.fileKey(), attributes.fileKey());
+    }
+
+    private static FileStamp readStamp(ByteBuffer buffer) {
+        long lastModified = buffer.getLong();
+        long size = buffer.getLong();
+        byte[] hash = new byte[HASH_LENGTH];
+        buffer.get(hash);
+
+        return new FileStamp(lastModified, size, hash);
+    }
+
+    private static void writeStamp(DataOutputStream out, BasicFileAttributes attributes, byte[] hash)
+        throws IOException {
+        out.writeLong(attributes != null ? attributes.lastModifiedTime().toMillis() : 0);
+        out.writeLong(attributes != null ? attributes.size() : 0);
+        out.write(hash);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] hash(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+
+        return digest.digest();
+    }
+
+    private static long fingerprint(String value) {
+        return ByteBuffer.wrap(newDigest().digest(value.getBytes(StandardCharsets.UTF_8))).getLong();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static void refreshLastModified(Path snapshotFile, long offset, long lastModified) throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).putLong(0, lastModified);
+            channel.write(buffer, offset);
+        }
+    }
+
+    private static void writeModel(DataOutputStream out, DBModel model) throws IOException {
+        StringTable strings = new StringTable();
+        ByteBuffer body = encodeBody(model, strings);
+
+        out.writeInt(strings.values.size());
+        for (String value : strings.values)
+            writeString(out, value);
+
+        out.write(body.array(), 0, body.position());
+    }
+
+    private static ByteBuffer encodeBody(DBModel model, StringTable strings) {
+        IntWriter writer = new IntWriter();
+
+        writer.write(model.getSchemaVersion());
+
+        writer.write(model.getSetNames().size());
+        model.getSetNames().forEach(setName -> writer.write(strings.idOf(setName)));
+
+        for (RelicType type : RelicType.values()) {
+            List<String> weaponNames = model.getWeaponNames(type);
+            writer.write(weaponNames.size());
+            weaponNames.forEach(weaponName -> writer.write(strings.idOf(weaponName)));
+        }
+
+        writer.write(model.getCharacters().size());
+        for (CharacterEntry character : model.getCharacters()) {
+            writer.write(strings.idOf(character.name()));
+            writer.write(strings.idOf(character.url()));
+
+            for (RelicType type : RelicType.values()) {
+                WeaponOption[] weaponOptions = character.getWeaponOptions(type);
+                writer.write(weaponOptions.length);
+
+                for (WeaponOption weaponOption : weaponOptions) {
+                    writer.write(weaponOption.rank());
+                    writer.write(weaponOption.setIds().length);
+                    Arrays.stream(weaponOption.setIds()).forEach(writer::write);
+                }
+            }
+
+            for (RelicPart part : MAIN_STAT_PARTS)
+                writeStatOptions(writer, strings, character.getMainStats(part));
+
+            writer.write(character.subStats().length);
+            for (StatOptions subStatOptions : character.subStats())
+                writeStatOptions(writer, strings, subStatOptions);
+        }
+
+        return writer.buffer;
+    }
+
+    private static void writeStatOptions(IntWriter writer, StringTable strings, StatOptions statOptions) {
+        writer.write(strings.idOf(statOptions.text()));
+        writer.write(statOptions.size());
+
+        for (int i = 0; i < statOptions.size(); i++) {
+            writer.write(statOptions.statIds()[i]);
+            writer.write(strings.idOf(statOptions.options()[i]));
+        }
+    }
+
+    private static DBModel readModel(ByteBuffer buffer) {
+        String[] strings = new String[buffer.getInt()];
+        for (int i = 0; i < strings.length; i++)
+            strings[i] = readString(buffer);
+
+        DBModel.Builder builder = new DBModel.Builder();
+        builder.setSchemaVersion(buffer.getInt());
+
+        // interning the set table in order reproduces the stored set IDs
+        int setCount = buffer.getInt();
+        for (int i = 0; i < setCount; i++)
+            builder.internSet(strings[buffer.getInt()]);
+
+        for (RelicType type : RelicType.values()) {
+            List<String> weaponNames = new ArrayList<>();
+            int weaponCount = buffer.getInt();
+            for (int i = 0; i < weaponCount; i++)
+                weaponNames.add(strings[buffer.getInt()]);
+
+            builder.setWeaponNames(type, weaponNames);
+        }
+
+        int characterCount = buffer.getInt();
+        for (int id = 0; id < characterCount; id++) {
+            String name = strings[buffer.getInt()];
+            String url = strings[buffer.getInt()];
+
+            Map<RelicType, WeaponOption[]> weaponOptions = new EnumMap<>(RelicType.class);
+            for (RelicType type : RelicType.values()) {
+                WeaponOption[] options = new WeaponOption[buffer.getInt()];
+
+                for (int i = 0; i < options.length; i++) {
+                    int rank = buffer.getInt();
+                    int[] setIds = new int[buffer.getInt()];
+                    for (int j = 0; j < setIds.length; j++)
+                        setIds[j] = buffer.getInt();
+
+                    options[i] = new WeaponOption(rank, setIds);
+                }
+
+                weaponOptions.put(type, options);
+            }
+
+            Map<RelicPart, StatOptions> mainStats = new EnumMap<>(RelicPart.class);
+            for (RelicPart part : MAIN_STAT_PARTS)
+                mainStats.put(part, readStatOptions(buffer, strings));
+
+            StatOptions[] subStats = new StatOptions[buffer.getInt()];
+            long[] subStatMasks = new long[subStats.length];
+            for (int i = 0; i < subStats.length; i++) {
+                subStats[i] = readStatOptions(buffer, strings);
+                subStatMasks[i] = subStats[i].mask();
+            }
+
+            builder.addCharacter(new CharacterEntry(
+                id, name, url,
+                weaponOptions.get(RelicType.RELIC), weaponOptions.get(RelicType.ORNAMENT),
+                Collections.unmodifiableMap(mainStats), subStats, subStatMasks
+            ));
+        }
+
+        if (buffer.hasRemaining())
+            throw new IllegalStateException("Trailing data after the last character");
+
+        return builder.build();
+    }
+
+    private static StatOptions readStatOptions(ByteBuffer buffer, String[] strings) {
+        String text = strings[buffer.getInt()];
+        String[] options = new String[buffer.getInt()];
+        int[] statIds = new int[options.length];
+
+        for (int i = 0; i < options.length; i++) {
+            statIds[i] = buffer.getInt();
+            options[i] = strings[buffer.getInt()];
+        }
+
+        return StatOptions.of(text, options, statIds);
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null)
+            return;
+
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.warn(String.format("Could not delete temporary file %s", file), e);
+        }
+    }
+
+    private record FileStamp(long lastModified, long size, byte[] hash) { }
+
+    private static class StringTable {
+
+        private final List<String> values = new ArrayList<>();
+        private final Map<String, Integer> ids = new HashMap<>();
+
+        int idOf(String value) {
+            return ids.computeIfAbsent(value, key -> {
+                values.add(key);
+                return values.size() - 1;
+            });
+        }
+
+    }
+
+    private static class IntWriter {
+
+        private ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+
+        void write(int value) {
+            if (buffer.remaining() < Integer.BYTES) {
+                ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                grown.put(buffer);
+                buffer = grown;
+            }
+
+            buffer.putInt(value);
+        }
+
+    }
+
+}
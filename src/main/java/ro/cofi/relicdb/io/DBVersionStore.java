@@ -0,0 +1,347 @@
+package ro.cofi.relicdb.io;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ro.cofi.relicdb.model.DBModel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+// Versions are stored either in full (a base), or as a delta against the latest base.
+// A delta keeps every top-level entry of the DB, except that each character which is identical to
+// one in the base is replaced by the content hash of that character.
+// Every base which deltas refer to is also linked into a directory of its own, so that deleting the base version
+// does not make its deltas unloadable. The link is removed once no delta refers to the base anymore.
+class DBVersionStore {
+
+    static final String DELTA_MARKER = ".delta";
+    static final String BASE_KEY = "deltaBase";
+
+    private static final Logger LOGGER = LogManager.getLogger(DBVersionStore.class);
+    private static final Gson GSON = new Gson();
+
+    private static final String CHARACTERS_KEY = "characters";
+
+    // after this many deltas, or when most characters changed, a new base is written
+    private static final int MAX_DELTAS_PER_BASE = 20;
+    private static final double MAX_CHANGED_RATIO = 0.5;
+    // a base holds every character of a version, so only the bases of the latest loads are kept
+    private static final int MAX_CACHED_BASES = 2;
+
+    private final Path baseDir;
+    private final FileOpener fileOpener;
+
+    // least recently used first, an entry is only used while its file is unchanged
+    private final LinkedHashMap<File, CachedBase> cachedBases = new LinkedHashMap<>(16, 0.75f, true);
+
+    DBVersionStore(Path baseDir, FileOpener fileOpener) {
+        this.baseDir = baseDir;
+        this.fileOpener = fileOpener;
+    }
+
+    static boolean isDelta(File file) {
+        return file.getName().contains(DELTA_MARKER + ".json");
+    }
+
+    // returns the delta for the data, or null if it should be stored in full
+    JsonObject encode(JsonObject data, List<DBChoice> storedChoices) {
+        // stored choices are sorted from newest to oldest
+        int deltaCount = 0;
+        File baseFile = null;
+        for (DBChoice choice : storedChoices) {
+            if (!isDelta(choice.getFile())) {
+                baseFile = choice.getFile();
+                break;
+            }
+
+            deltaCount++;
+        }
+
+        if (baseFile == null || deltaCount >= MAX_DELTAS_PER_BASE)
+            return null;
+
+        // without the link, deleting the base would take its deltas with it - a full version has no such problem
+        try {
+            linkBase(baseFile);
+        } catch (IOException e) {
+            LOGGER.warn(String.format("Could not link base %s, storing a full version", baseFile.getName()), e);
+            return null;
+        }
+
+        // a base which is gone, or cannot be read, would leave the delta unreadable - a full version never is
+        Set<String> baseHashes;
+        try {
+            baseHashes = readCharacterHashes(baseFile);
+        } catch (IOException e) {
+            LOGGER.warn(String.format("Could not read base %s, storing a full version", baseFile.getName()), e);
+            return null;
+        }
+
+        JsonArray characters = data.getAsJsonArray(CHARACTERS_KEY);
+        JsonArray deltaCharacters = new JsonArray(characters.size());
+        int changedCount = 0;
+
+        for (JsonElement character : characters) {
+            String hash = hash(character);
+
+            if (baseHashes.contains(hash)) {
+                deltaCharacters.add(hash);
+            } else {
+                deltaCharacters.add(character);
+                changedCount++;
+            }
+        }
+
+        if (changedCount > characters.size() * MAX_CHANGED_RATIO)
+            return null;
+
+        JsonObject delta = new JsonObject();
+        delta.addProperty(BASE_KEY, baseFile.getName());
+        data.entrySet().forEach(entry -> delta.add(entry.getKey(), entry.getValue()));
+        delta.add(CHARACTERS_KEY, deltaCharacters);
+
+        return delta;
+    }
+
+    // streamed like a full version, with the unchanged characters taken from the base
+    Rebuilt rebuild(File deltaFile) throws IOException {
+        AtomicReference<Base> usedBase = new AtomicReference<>();
+
+        try (Reader reader = fileOpener.open(deltaFile)) {
+            DBModel model = DBModelReader.read(reader, baseName -> {
+                Base base = getBase(resolveBase(deltaFile, baseName));
+                usedBase.set(base);
+
+                return base.characters();
+            });
+
+            Base base = usedBase.get();
+            return base != null ? new Rebuilt(model, base.file(), base.attributes()) : new Rebuilt(model, null, null);
+        }
+    }
+
+    // deletes the links of bases which were deleted as versions, and which no remaining delta refers to
+    void pruneBases(List<DBChoice> storedChoices) {
+        Set<String> referencedBases = new HashSet<>();
+        Set<String> storedFileNames = new HashSet<>();
+
+        for (DBChoice choice : storedChoices) {
+            storedFileNames.add(choice.getFile().getName());
+            if (!isDelta(choice.getFile()))
+                continue;
+
+            try {
+                String baseName = readBaseName(choice.getFile());
+                if (baseName != null)
+                    referencedBases.add(baseName);
+            } catch (IOException e) {
+                // the delta may still need its base
+                LOGGER.warn(String.format("Could not read the base of delta %s", choice.getFile().getName()), e);
+                return;
+            }
+        }
+
+        try (Stream<Path> links = Files.list(baseDir)) {
+            for (Path link : (Iterable<Path>) links::iterator) {
+                String baseName = link.getFileName().toString();
+                if (baseName.endsWith(".tmp"))
+                    continue;
+
+                if (storedFileNames.contains(baseName) || referencedBases.contains(baseName))
+                    continue;
+
+                Files.deleteIfExists(link);
+                LOGGER.info("Deleted base {}, which no stored version refers to anymore", baseName);
+            }
+        } catch (NoSuchFileException e) {
+            // no base was linked yet
+        } catch (IOException e) {
+            LOGGER.warn(String.format("Could not prune the bases in %s", baseDir), e);
+        }
+    }
+
+    private void linkBase(File baseFile) throws IOException {
+        Path link = baseDir.resolve(baseFile.getName());
+        if (Files.exists(link))
+            return;
+
+        Files.createDirectories(baseDir);
+
+        try {
+            // a hard link costs no space while the base version is stored
+            Files.createLink(link, baseFile.toPath());
+        } catch (FileAlreadyExistsException e) {
+            // linked concurrently
+        } catch (IOException | UnsupportedOperationException e) {
+            LOGGER.debug(String.format("Could not hard link base %s, copying it instead", baseFile.getName()), e);
+            copyBase(baseFile.toPath(), link);
+        }
+    }
+
+    private void copyBase(Path baseFile, Path link) throws IOException {
+        Path tempFile = Files.createTempFile(baseDir, link.getFileName().toString(), ".tmp");
+
+        try {
+            Files.copy(baseFile, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tempFile, link, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // copied concurrently
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    // the stored base version if it is still there, otherwise its link
+    private File resolveBase(File deltaFile, String baseName) throws IOException {
+        File baseFile = new File(deltaFile.getParentFile(), baseName);
+        if (baseFile.exists())
+            return baseFile;
+
+        File linkedBase = baseDir.resolve(baseName).toFile();
+        if (linkedBase.exists())
+            return linkedBase;
+
+        throw new IOException(String.format("Base %s of delta %s is missing", baseName, deltaFile.getName()));
+    }
+
+    private Base getBase(File baseFile) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(baseFile.toPath(), BasicFileAttributes.class);
+
+        CachedBase cachedBase;
+        synchronized (cachedBases) {
+            cachedBase = cachedBases.computeIfAbsent(baseFile, file -> new CachedBase());
+
+            Iterator<CachedBase> iterator = cachedBases.values().iterator();
+            while (cachedBases.size() > MAX_CACHED_BASES) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+
+        // reading can take a while, only rebuilds of the same base wait for it
+        synchronized (cachedBase) {
+            if (!cachedBase.matches(attributes))
+                cachedBase.base = new Base(baseFile, attributes, readCharacters(baseFile));
+
+            return cachedBase.base;
+        }
+    }
+
+    // the base is written first, so this only reads the start of the delta
+    private String readBaseName(File deltaFile) throws IOException {
+        try (Reader reader = fileOpener.open(deltaFile)) {
+            JsonReader jsonReader = new JsonReader(reader);
+
+            jsonReader.beginObject();
+            while (jsonReader.hasNext()) {
+                if (jsonReader.nextName().equals(BASE_KEY))
+                    return jsonReader.nextString();
+
+                jsonReader.skipValue();
+            }
+
+            return null;
+        } catch (JsonParseException | IllegalStateException e) {
+            throw new IOException(String.format("Malformed DB file %s", deltaFile.getName()), e);
+        }
+    }
+
+    // the characters of a base, keyed by content hash
+    private Map<String, JsonObject> readCharacters(File baseFile) throws IOException {
+        Map<String, JsonObject> characters = new HashMap<>();
+        readBaseCharacters(baseFile, character -> characters.put(hash(character), character.getAsJsonObject()));
+
+        return characters;
+    }
+
+    // only the hashes are needed for encoding, so no character is kept after it has been hashed
+    private Set<String> readCharacterHashes(File baseFile) throws IOException {
+        Set<String> hashes = new HashSet<>();
+        readBaseCharacters(baseFile, character -> hashes.add(hash(character)));
+
+        return hashes;
+    }
+
+    private void readBaseCharacters(File baseFile, Consumer<JsonElement> consumer) throws IOException {
+        try (Reader reader = fileOpener.open(baseFile)) {
+            JsonReader jsonReader = new JsonReader(reader);
+
+            jsonReader.beginObject();
+            while (jsonReader.hasNext()) {
+                if (!jsonReader.nextName().equals(CHARACTERS_KEY)) {
+                    jsonReader.skipValue();
+                    continue;
+                }
+
+                jsonReader.beginArray();
+                while (jsonReader.hasNext())
+                    consumer.accept(JsonParser.parseReader(jsonReader));
+                jsonReader.endArray();
+            }
+            jsonReader.endObject();
+        } catch (JsonParseException | IllegalStateException e) {
+            throw new IOException(String.format("Malformed DB file %s", baseFile.getName()), e);
+        }
+    }
+
+    private static String hash(JsonElement character) {
+        return PageCache.hash(GSON.toJson(character));
+    }
+
+    @FunctionalInterface
+    interface FileOpener {
+
+        Reader open(File file) throws IOException;
+
+    }
+
+    // returns the characters of the named base, keyed by content hash
+    @FunctionalInterface
+    interface BaseResolver {
+
+        Map<String, JsonObject> resolve(String baseName) throws IOException;
+
+    }
+
+    // the base a delta was rebuilt from, with its attributes from before it was read
+    record Rebuilt(DBModel model, File baseFile, BasicFileAttributes baseAttributes) { }
+
+    private record Base(File file, BasicFileAttributes attributes, Map<String, JsonObject> characters) { }
+
+    private static class CachedBase {
+
+        private Base base;
+
+        boolean matches(BasicFileAttributes attributes) {
+            return base != null
+                && base.attributes().lastModifiedTime().equals(attributes.lastModifiedTime())
+                && base.attributes().size() == attributes.size();
+        }
+
+    }
+
+}
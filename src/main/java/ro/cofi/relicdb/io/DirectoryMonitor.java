@@ -0,0 +1,249 @@
+package ro.cofi.relicdb.io;
+
+import org.apache.commons.io.monitor.FileAlterationListenerAdaptor;
+import org.apache.commons.io.monitor.FileAlterationMonitor;
+import org.apache.commons.io.monitor.FileAlterationObserver;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+// Watches a directory for changes to matching files, and reports each burst of changes once, after it settles.
+// A burst which never settles is still reported once it is older than the maximum delay.
+// Uses the native watch service where available, and polling otherwise.
+// The changed file names are reported together, or null if they are unknown and the directory must be rescanned.
+class DirectoryMonitor {
+
+    private static final Logger LOGGER = LogManager.getLogger(DirectoryMonitor.class);
+
+    private final Path directory;
+    private final Predicate<String> fileNameFilter;
+    private final long debounceMillis;
+    private final long maxDelayMillis;
+    private final long pollIntervalMillis;
+    private final Consumer<Set<String>> onChange;
+
+    // callbacks run here, never on the watcher thread
+    private final ScheduledExecutorService dispatcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "directory-dispatcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // guarded by the dispatcher
+    private ScheduledFuture<?> pendingDispatch;
+    private Set<String> pendingFileNames = new HashSet<>();
+    private boolean pendingRescan;
+    private long pendingSince;
+
+    private WatchService watchService;
+    private FileAlterationMonitor pollingMonitor;
+
+    DirectoryMonitor(
+        Path directory, Predicate<String> fileNameFilter, long debounceMillis, long maxDelayMillis,
+        long pollIntervalMillis, Consumer<Set<String>> onChange
+    ) {
+        this.directory = directory;
+        this.fileNameFilter = fileNameFilter;
+        this.debounceMillis = debounceMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.onChange = onChange;
+    }
+
+    synchronized void start() throws IOException {
+        // a directory can only be watched if it exists
+        Files.createDirectories(directory);
+
+        try {
+            watchService = directory.getFileSystem().newWatchService();
+            directory.register(
+                watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE,
+                StandardWatchEventKinds.ENTRY_MODIFY
+            );
+        } catch (IOException | UnsupportedOperationException e) {
+            LOGGER.warn(String.format("Watch events are unavailable for %s, polling instead", directory), e);
+            closeWatchService();
+            startPolling();
+            return;
+        }
+
+        WatchService service = watchService;
+        Thread watcher = new Thread(() -> watch(service), "directory-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    synchronized void stop() {
+        synchronized (dispatcher) {
+            dispatcher.shutdownNow();
+        }
+
+        closeWatchService();
+        stopPolling();
+    }
+
+    // for changes noticed elsewhere, which are then reported like the ones seen here
+    void reportChange(String fileName) {
+        scheduleDispatch(fileName);
+    }
+
+    private void watch(WatchService service) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    // on overflow, events were lost, so the whole directory has to be rescanned
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+                        scheduleDispatch(null);
+                    else if (fileNameFilter.test(event.context().toString()))
+                        scheduleDispatch(event.context().toString());
+                }
+
+                if (!key.reset()) {
+                    // the directory is gone or can no longer be watched
+                    LOGGER.warn("Stopped receiving watch events for {}, polling instead", directory);
+                    switchToPolling();
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // stopped
+        }
+    }
+
+    private synchronized void switchToPolling() {
+        if (dispatcher.isShutdown())
+            return;
+
+        closeWatchService();
+        scheduleDispatch(null);
+
+        try {
+            startPolling();
+        } catch (IOException e) {
+            LOGGER.error(String.format("Could not start polling %s", directory), e);
+        }
+    }
+
+    private void startPolling() throws IOException {
+        FileAlterationObserver observer = new FileAlterationObserver(
+            directory.toFile(), file -> fileNameFilter.test(file.getName())
+        );
+        observer.addListener(new FileAlterationListenerAdaptor() {
+            @Override
+            public void onFileCreate(File file) {
+                scheduleDispatch(file.getName());
+            }
+
+            @Override
+            public void onFileDelete(File file) {
+                scheduleDispatch(file.getName());
+            }
+
+            @Override
+            public void onFileChange(File file) {
+                scheduleDispatch(file.getName());
+            }
+        });
+
+        pollingMonitor = new FileAlterationMonitor(pollIntervalMillis, observer);
+
+        try {
+            pollingMonitor.start();
+        } catch (Exception e) {
+            throw new IOException("Could not start polling monitor", e);
+        }
+    }
+
+    private void stopPolling() {
+        if (pollingMonitor == null)
+            return;
+
+        try {
+            pollingMonitor.stop();
+        } catch (Exception e) {
+            LOGGER.error("Could not stop polling monitor", e);
+        }
+
+        pollingMonitor = null;
+    }
+
+    private void closeWatchService() {
+        if (watchService == null)
+            return;
+
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            LOGGER.warn("Could not close watch service", e);
+        }
+
+        watchService = null;
+    }
+
+    private void scheduleDispatch(String fileName) {
+        // not synchronized on the monitor, which may be waiting for the polling thread to stop
+        synchronized (dispatcher) {
+            if (dispatcher.isShutdown())
+                return;
+
+            long now = System.nanoTime();
+            if (pendingDispatch == null)
+                pendingSince = now;
+
+            if (fileName != null)
+                pendingFileNames.add(fileName);
+            else
+                pendingRescan = true;
+
+            // trailing edge - every new event pushes the dispatch back, so a burst is reported once
+            // but never past the maximum delay, or a file which keeps changing would hold back every other change
+            if (pendingDispatch != null && !pendingDispatch.cancel(false))
+                return; // the dispatch is about to take the pending changes, this one included
+
+            long remainingMillis = maxDelayMillis - TimeUnit.NANOSECONDS.toMillis(now - pendingSince);
+            pendingDispatch = dispatcher.schedule(
+                this::dispatch, Math.max(0, Math.min(debounceMillis, remainingMillis)), TimeUnit.MILLISECONDS
+            );
+        }
+    }
+
+    private void dispatch() {
+        Set<String> fileNames;
+        synchronized (dispatcher) {
+            fileNames = pendingRescan ? null : pendingFileNames;
+            pendingFileNames = new HashSet<>();
+            pendingRescan = false;
+            pendingDispatch = null;
+        }
+
+        try {
+            onChange.accept(fileNames);
+        } catch (RuntimeException e) {
+            LOGGER.error("Directory listener failed", e);
+        }
+    }
+
+}
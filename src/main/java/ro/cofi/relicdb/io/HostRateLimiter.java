@@ -0,0 +1,70 @@
+package ro.cofi.relicdb.io;
+
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+public class HostRateLimiter {
+
+    private final double requestsPerSecond;
+    private final int burst;
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    public HostRateLimiter(double requestsPerSecond, int burst) {
+        if (requestsPerSecond <= 0 || burst < 1)
+            throw new IllegalArgumentException("The request rate and burst must be positive");
+
+        this.requestsPerSecond = requestsPerSecond;
+        this.burst = burst;
+    }
+
+    public void acquire(String url) throws InterruptedIOException {
+        String host = URI.create(url).getHost();
+        TokenBucket bucket = buckets.computeIfAbsent(host, key -> new TokenBucket());
+
+        try {
+            bucket.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(String.format("Interrupted while waiting to request %s", url));
+        }
+    }
+
+    private class TokenBucket {
+
+        private double tokens = burst;
+        private long lastRefill = System.nanoTime();
+
+        void acquire() throws InterruptedException {
+            while (true) {
+                long waitNanos;
+
+                synchronized (this) {
+                    refill();
+
+                    if (tokens >= 1) {
+                        tokens--;
+                        return;
+                    }
+
+                    waitNanos = (long) ((1 - tokens) / requestsPerSecond * TimeUnit.SECONDS.toNanos(1));
+                }
+
+                // sleep outside the lock, so other threads can refill and race for the next token
+                TimeUnit.NANOSECONDS.sleep(Math.max(waitNanos, 1));
+            }
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            double refilled = (now - lastRefill) * requestsPerSecond / TimeUnit.SECONDS.toNanos(1);
+
+            tokens = Math.min(burst, tokens + refilled);
+            lastRefill = now;
+        }
+
+    }
+
+}
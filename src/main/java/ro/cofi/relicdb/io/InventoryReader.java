@@ -0,0 +1,230 @@
+package ro.cofi.relicdb.io;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import ro.cofi.relicdb.logic.RelicPart;
+import ro.cofi.relicdb.logic.RelicType;
+import ro.cofi.relicdb.logic.Stat;
+import ro.cofi.relicdb.scoring.AnalysisRecipe;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// Reads an exported inventory into one recipe per relic.
+// CSV rows are "type,part,set,mainStat,subStat1,...,subStat4", with an optional header and quoted set names.
+// JSON files hold an array of {"type", "part", "set", "mainStat", "subStats": [...]} objects.
+// Types, parts and stats are matched by their IDs or by their display names, ignoring case.
+public class InventoryReader {
+
+    private static final int MAX_SUB_STATS = 4;
+    private static final String CSV_HEADER_START = "type";
+
+    private InventoryReader() { }
+
+    public static List<AnalysisRecipe> read(Path file) throws IOException {
+        String fileName = file.getFileName().toString().toLowerCase();
+
+        if (fileName.endsWith(".csv"))
+            return readCSV(file);
+
+        if (fileName.endsWith(".json"))
+            return readJSON(file);
+
+        throw new IOException(String.format("Unsupported inventory file %s, expected .csv or .json", file));
+    }
+
+    private static List<AnalysisRecipe> readCSV(Path file) throws IOException {
+        List<AnalysisRecipe> recipes = new ArrayList<>();
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            int lineNumber = 0;
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+
+                try {
+                    AnalysisRecipe recipe = parseCSVRow(line);
+                    if (recipe != null)
+                        recipes.add(recipe);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(String.format("Invalid relic on line %d of %s", lineNumber, file), e);
+                }
+            }
+        }
+
+        return recipes;
+    }
+
+    // null for blank rows and headers, which carry no relic
+    public static AnalysisRecipe parseCSVRow(String row) {
+        if (row.isBlank())
+            return null;
+
+        List<String> fields = splitCSVLine(row);
+        if (fields.get(0).trim().equalsIgnoreCase(CSV_HEADER_START))
+            return null;
+
+        if (fields.size() < 4 || fields.size() > 4 + MAX_SUB_STATS)
+            throw new IllegalArgumentException(String.format(
+                "Expected 4 to %d fields, found %d", 4 + MAX_SUB_STATS, fields.size()
+            ));
+
+        return parseRelic(fields.get(0), fields.get(1), fields.get(2), fields.get(3), fields.subList(4, fields.size()));
+    }
+
+    private static List<String> splitCSVLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    // escaped quote
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static List<AnalysisRecipe> readJSON(Path file) throws IOException {
+        List<AnalysisRecipe> recipes = new ArrayList<>();
+
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(file, StandardCharsets.UTF_8))) {
+            reader.beginArray();
+
+            while (reader.hasNext()) {
+                try {
+                    recipes.add(readJSONRelic(reader));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(String.format("Invalid relic #%d in %s", recipes.size() + 1, file), e);
+                }
+            }
+
+            reader.endArray();
+        } catch (IllegalStateException | JsonParseException e) {
+            throw new IOException(String.format("Malformed inventory %s", file), e);
+        }
+
+        return recipes;
+    }
+
+    private static AnalysisRecipe readJSONRelic(JsonReader reader) throws IOException {
+        String type = null;
+        String part = null;
+        String set = null;
+        String mainStat = null;
+        List<String> subStats = new ArrayList<>();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+
+            // unknown keys are ignored, exports often carry levels and stat values too
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
+
+            switch (name) {
+                case "type" -> type = reader.nextString();
+                case "part" -> part = reader.nextString();
+                case "set" -> set = reader.nextString();
+                case "mainStat" -> mainStat = reader.nextString();
+                case "subStats" -> {
+                    reader.beginArray();
+                    while (reader.hasNext())
+                        subStats.add(reader.nextString());
+                    reader.endArray();
+                }
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return parseRelic(type, part, set, mainStat, subStats);
+    }
+
+    public static AnalysisRecipe parseRelic(
+        String typeValue, String partValue, String set, String mainStatValue, List<String> subStatValues
+    ) {
+        if (subStatValues.size() > MAX_SUB_STATS)
+            throw new IllegalArgumentException(String.format("Too many substats: %s", subStatValues));
+
+        RelicType type = parseEnum(RelicType.class, typeValue);
+        RelicPart part = parseEnum(RelicPart.class, partValue);
+        Stat mainStat = parseStat(mainStatValue);
+
+        if (!type.getParts().contains(part))
+            throw new IllegalArgumentException(String.format("%s is not a part of %s", part, type));
+
+        if (mainStat == null || !part.getAvailableStats().contains(mainStat))
+            throw new IllegalArgumentException(String.format("Invalid main stat %s for %s", mainStatValue, part));
+
+        if (set == null || set.isBlank())
+            throw new IllegalArgumentException("Missing set name");
+
+        Stat[] subStats = new Stat[MAX_SUB_STATS];
+        for (int i = 0; i < subStatValues.size(); i++)
+            subStats[i] = parseStat(subStatValues.get(i));
+
+        return new AnalysisRecipe(
+            type, part, set.trim(), mainStat,
+            subStats[0], subStats[1], subStats[2], subStats[3]
+        );
+    }
+
+    // blank values are missing substats
+    private static Stat parseStat(String value) {
+        if (value == null || value.isBlank())
+            return null;
+
+        String trimmed = value.trim();
+
+        Stat stat = Stat.fromId(trimmed.toUpperCase());
+        if (stat == null)
+            stat = Stat.fromName(trimmed);
+
+        if (stat == null)
+            throw new IllegalArgumentException(String.format("Unknown stat %s", value));
+
+        return stat;
+    }
+
+    private static <E extends Enum<E>> E parseEnum(Class<E> enumClass, String value) {
+        if (value != null) {
+            String trimmed = value.trim();
+
+            for (E constant : enumClass.getEnumConstants())
+                if (constant.name().equalsIgnoreCase(trimmed) || constant.toString().equalsIgnoreCase(trimmed))
+                    return constant;
+        }
+
+        throw new IllegalArgumentException(String.format("Unknown %s %s", enumClass.getSimpleName(), value));
+    }
+
+}
@@ -0,0 +1,84 @@
+package ro.cofi.relicdb.io;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ro.cofi.relicdb.LoadedDB;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Keeps the most recently used versions loaded, bounded both by their count and by their estimated size.
+// Choices include the modification time, so a changed file never hits a stale entry.
+class LoadedDBCache {
+
+    private static final Logger LOGGER = LogManager.getLogger(LoadedDBCache.class);
+
+    private final int maxEntries;
+    private final long maxRetainedSize;
+
+    private final LinkedHashMap<DBChoice, CachedDB> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long retainedSize;
+    private long hits;
+    private long misses;
+
+    LoadedDBCache(int maxEntries, long maxRetainedSize) {
+        this.maxEntries = maxEntries;
+        this.maxRetainedSize = maxRetainedSize;
+    }
+
+    synchronized LoadedDB get(DBChoice choice) {
+        CachedDB cached = entries.get(choice);
+
+        if (cached != null)
+            hits++;
+        else
+            misses++;
+
+        LOGGER.info(
+            "DB cache {} for \"{}\" ({} hits, {} misses, {} entries, ~{} KB)",
+            cached != null ? "hit" : "miss", choice, hits, misses, entries.size(), retainedSize / 1024
+        );
+
+        return cached != null ? cached.loadedDB() : null;
+    }
+
+    synchronized void put(DBChoice choice, LoadedDB loadedDB) {
+        long size = loadedDB.getModel().estimateRetainedSize();
+
+        // a version which could never fit would only evict everything else
+        if (size > maxRetainedSize) {
+            LOGGER.info("Not caching \"{}\", its estimated size of {} KB is over the limit", choice, size / 1024);
+            return;
+        }
+
+        CachedDB previous = entries.put(choice, new CachedDB(loadedDB, size));
+        if (previous != null)
+            retainedSize -= previous.size();
+
+        retainedSize += size;
+
+        // evict the least recently used entries, but never the one which was just added
+        Iterator<Map.Entry<DBChoice, CachedDB>> iterator = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || retainedSize > maxRetainedSize) && iterator.hasNext()) {
+            Map.Entry<DBChoice, CachedDB> eldest = iterator.next();
+            if (eldest.getKey().equals(choice))
+                break;
+
+            retainedSize -= eldest.getValue().size();
+            iterator.remove();
+
+            LOGGER.info("Evicted \"{}\" from the DB cache", eldest.getKey());
+        }
+    }
+
+    synchronized void invalidate(DBChoice choice) {
+        CachedDB removed = entries.remove(choice);
+        if (removed != null)
+            retainedSize -= removed.size();
+    }
+
+    private record CachedDB(LoadedDB loadedDB, long size) { }
+
+}
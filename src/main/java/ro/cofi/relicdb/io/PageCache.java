@@ -0,0 +1,124 @@
+package ro.cofi.relicdb.io;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class PageCache {
+
+    private static final Logger LOGGER = LogManager.getLogger(PageCache.class);
+    private static final Gson GSON = new Gson();
+
+    private final Path directory;
+
+    public PageCache(Path directory) {
+        this.directory = directory;
+    }
+
+    public Entry get(String url) {
+        Path entryFile = directory.resolve(String.format("%s.json", key(url)));
+
+        try {
+            Entry entry = GSON.fromJson(Files.readString(entryFile), Entry.class);
+
+            // guard against hash collisions and hand-edited files
+            return entry != null && url.equals(entry.url()) ? entry : null;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | JsonParseException e) {
+            LOGGER.warn(String.format("Ignoring unreadable page cache entry for %s", url), e);
+            return null;
+        }
+    }
+
+    public String getHTML(String url) throws IOException {
+        return Files.readString(directory.resolve(String.format("%s.html", key(url))));
+    }
+
+    public void put(Entry entry, String html) throws IOException {
+        Files.createDirectories(directory);
+
+        String key = key(entry.url());
+
+        // the raw page is optional, a revalidated page only refreshes the entry
+        if (html != null)
+            writeAtomically(directory.resolve(String.format("%s.html", key)), html);
+
+        writeAtomically(directory.resolve(String.format("%s.json", key)), GSON.toJson(entry));
+    }
+
+    // deletes the entries of every other page, such as characters which were removed from the site
+    public void retainOnly(Collection<String> urls) throws IOException {
+        if (!Files.isDirectory(directory))
+            return;
+
+        Set<String> keys = urls.stream().map(PageCache::key).collect(Collectors.toSet());
+        int removedFiles = 0;
+
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String fileName = file.getFileName().toString();
+                if (!fileName.endsWith(".json") && !fileName.endsWith(".html"))
+                    continue;
+
+                if (!keys.contains(fileName.substring(0, fileName.lastIndexOf('.'))) && Files.deleteIfExists(file))
+                    removedFiles++;
+            }
+        }
+
+        if (removedFiles > 0)
+            LOGGER.info("Removed {} page cache files of pages which are no longer scraped", removedFiles);
+    }
+
+    private void writeAtomically(Path target, String content) throws IOException {
+        Path tempFile = Files.createTempFile(directory, target.getFileName().toString(), ".tmp");
+
+        try {
+            Files.writeString(tempFile, content);
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private static String key(String url) {
+        return hash(url);
+    }
+
+    public static String hash(String content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(content.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    public record Entry(
+        String url, String etag, String lastModified, String contentHash,
+        int fragmentVersion, JsonElement fragment
+    ) {
+
+        public boolean hasFragment(String contentHash, int fragmentVersion) {
+            return fragment != null && this.fragmentVersion == fragmentVersion && this.contentHash.equals(contentHash);
+        }
+
+    }
+
+}
@@ -0,0 +1,318 @@
+package ro.cofi.relicdb.io;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+// Keeps track of the stored versions, so that discovery does not have to stat every file in the directory.
+// The manifest is updated from the names of the changed files, and persisted next to the directory.
+class VersionManifest {
+
+    private static final Logger LOGGER = LogManager.getLogger(VersionManifest.class);
+    private static final Gson GSON = new Gson();
+
+    private static final int FORMAT_VERSION = 1;
+    private static final int UNKNOWN_CHARACTER_COUNT = -1;
+
+    private final Path directory;
+    private final Path manifestFile;
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    private boolean loaded;
+    private List<DBChoice> sortedChoices;
+
+    VersionManifest(Path directory, Path manifestFile) {
+        this.directory = directory;
+        this.manifestFile = manifestFile;
+    }
+
+    synchronized List<DBChoice> getChoices() {
+        ensureLoaded();
+
+        if (sortedChoices == null)
+            sortedChoices = entries.values().stream()
+                .map(this::toChoice)
+                .sorted()
+                .toList();
+
+        return sortedChoices;
+    }
+
+    synchronized Entry getEntry(String fileName) {
+        ensureLoaded();
+        return entries.get(fileName);
+    }
+
+    // a null set means that the changed files are unknown
+    ChoiceChanges update(Set<String> fileNames) {
+        Collection<String> candidates;
+        synchronized (this) {
+            ensureLoaded();
+            if (fileNames != null) {
+                candidates = fileNames;
+            } else {
+                // known versions are included, in case they were deleted
+                candidates = new HashSet<>(listFileNames());
+                candidates.addAll(entries.keySet());
+            }
+        }
+
+        // indexing reads the files, so it is done without holding the lock
+        Map<String, Entry> indexed = new HashMap<>();
+        for (String fileName : candidates) {
+            Entry current = getEntry(fileName);
+            Entry updated = index(fileName, current);
+            if (updated != current)
+                indexed.put(fileName, updated);
+        }
+
+        synchronized (this) {
+            List<DBChoice> removed = new ArrayList<>();
+            List<DBChoice> added = new ArrayList<>();
+
+            indexed.forEach((fileName, entry) -> apply(fileName, entry, removed, added));
+
+            ChoiceChanges changes = new ChoiceChanges(removed, added);
+            if (!changes.isEmpty())
+                save();
+
+            return changes;
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded)
+            return;
+
+        loaded = true;
+
+        Stored stored = readStored();
+        if (stored != null)
+            stored.versions().forEach(entry -> entries.put(entry.fileName(), entry));
+
+        // the stored entries are trusted - a version edited in place is checked again when the monitor reports it,
+        // or when it is loaded
+        if (stored != null && stored.directoryLastModified() == getDirectoryLastModified())
+            return;
+
+        // versions were added or deleted while the app was not running, only those are looked at
+        Set<String> fileNames = new HashSet<>(listFileNames());
+        List<DBChoice> removed = new ArrayList<>();
+        List<DBChoice> added = new ArrayList<>();
+
+        for (String fileName : List.copyOf(entries.keySet()))
+            if (!fileNames.contains(fileName))
+                apply(fileName, null, removed, added);
+
+        for (String fileName : fileNames)
+            if (!entries.containsKey(fileName))
+                apply(fileName, index(fileName, null), removed, added);
+
+        // snapshots written while their version was being deleted, or deleted before versions cleaned them up
+        deleteOrphanedSnapshots(fileNames);
+
+        save();
+    }
+
+    private void apply(String fileName, Entry entry, List<DBChoice> removed, List<DBChoice> added) {
+        // the same change may have been indexed concurrently
+        if (Objects.equals(entries.get(fileName), entry))
+            return;
+
+        Entry previous = entry != null ? entries.put(fileName, entry) : entries.remove(fileName);
+
+        if (previous != null)
+            removed.add(toChoice(previous));
+
+        // a modified version keeps its snapshot, which is checked against the file when read
+        if (previous != null && entry == null)
+            deleteSnapshot(fileName);
+
+        if (entry != null)
+            added.add(toChoice(entry));
+
+        sortedChoices = null;
+    }
+
+    // returns the current entry if the file did not change, or null if it no longer exists
+    private Entry index(String fileName, Entry current) {
+        Path file = directory.resolve(fileName);
+
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (!attributes.isRegularFile())
+                return null;
+
+            long lastModified = attributes.lastModifiedTime().toMillis();
+            if (current != null && current.lastModified() == lastModified && current.size() == attributes.size())
+                return current;
+
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            int characterCount;
+
+            try (InputStream fileIn = new DigestInputStream(
+                new BufferedInputStream(Files.newInputStream(file)), digest
+            )) {
+                characterCount = countCharacters(fileName, fileIn);
+
+                // whatever the parser did not need still has to be hashed
+                fileIn.transferTo(OutputStream.nullOutputStream());
+            }
+
+            return new Entry(
+                fileName, lastModified, attributes.size(),
+                HexFormat.of().formatHex(digest.digest()), characterCount
+            );
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            LOGGER.warn(String.format("Could not index version %s", fileName), e);
+            return current;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private int countCharacters(String fileName, InputStream fileIn) {
+        try {
+            InputStream in = DBFileFormat.isCompressed(fileName) ? new GZIPInputStream(fileIn) : fileIn;
+            JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!reader.nextName().equals("characters")) {
+                    reader.skipValue();
+                    continue;
+                }
+
+                int count = 0;
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                    count++;
+                }
+
+                return count;
+            }
+        } catch (IOException | IllegalStateException e) {
+            // still a version, it will just fail to load
+            LOGGER.warn(String.format("Could not count the characters of version %s", fileName), e);
+        }
+
+        return UNKNOWN_CHARACTER_COUNT;
+    }
+
+    private List<String> listFileNames() {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                .filter(DBFileFormat::isDBFile)
+                .toList();
+        } catch (NoSuchFileException e) {
+            return Collections.emptyList();
+        } catch (IOException e) {
+            LOGGER.error(String.format("Could not list versions in %s", directory), e);
+            return Collections.emptyList();
+        }
+    }
+
+    private void deleteOrphanedSnapshots(Set<String> fileNames) {
+        try (Stream<Path> files = Files.list(DBSnapshot.directoryOf(directory))) {
+            files.map(file -> file.getFileName().toString())
+                .filter(fileName -> fileName.endsWith(DBSnapshot.EXTENSION))
+                .map(fileName -> fileName.substring(0, fileName.length() - DBSnapshot.EXTENSION.length()))
+                .filter(fileName -> !fileNames.contains(fileName))
+                .forEach(this::deleteSnapshot);
+        } catch (NoSuchFileException e) {
+            // nothing was loaded yet
+        } catch (IOException e) {
+            LOGGER.warn(String.format("Could not list snapshots of %s", directory), e);
+        }
+    }
+
+    private void deleteSnapshot(String fileName) {
+        Path snapshotFile = DBSnapshot.sidecarOf(directory.resolve(fileName));
+
+        try {
+            if (Files.deleteIfExists(snapshotFile))
+                LOGGER.info("Deleted the snapshot of removed version {}", fileName);
+        } catch (IOException e) {
+            LOGGER.warn(String.format("Could not delete snapshot %s", snapshotFile), e);
+        }
+    }
+
+    private long getDirectoryLastModified() {
+        // 0 if the directory does not exist yet
+        return directory.toFile().lastModified();
+    }
+
+    private DBChoice toChoice(Entry entry) {
+        return new DBChoice(directory.resolve(entry.fileName()).toFile(), entry.lastModified());
+    }
+
+    private Stored readStored() {
+        try {
+            Stored stored = GSON.fromJson(Files.readString(manifestFile), Stored.class);
+            return stored != null && stored.formatVersion() == FORMAT_VERSION ? stored : null;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | JsonParseException e) {
+            LOGGER.warn(String.format("Ignoring unreadable version manifest %s", manifestFile), e);
+            return null;
+        }
+    }
+
+    private void save() {
+        Stored stored = new Stored(FORMAT_VERSION, getDirectoryLastModified(), List.copyOf(entries.values()));
+        Path absoluteFile = manifestFile.toAbsolutePath();
+
+        try {
+            Path tempFile = Files.createTempFile(
+                absoluteFile.getParent(), absoluteFile.getFileName().toString(), ".tmp"
+            );
+
+            try {
+                Files.writeString(tempFile, GSON.toJson(stored));
+                Files.move(tempFile, absoluteFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        } catch (IOException e) {
+            // the manifest is only an optimization, it is rebuilt next time
+            LOGGER.warn(String.format("Could not write version manifest %s", manifestFile), e);
+        }
+    }
+
+    record Entry(String fileName, long lastModified, long size, String hash, int characterCount) { }
+
+    private record Stored(int formatVersion, long directoryLastModified, List<Entry> versions) { }
+
+}
@@ -2,6 +2,9 @@ package ro.cofi.relicdb.logic;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 public enum Stat {
     SPD("SPD", "Speed"),
@@ -43,6 +46,9 @@ public enum Stat {
         HP_PCT, ATK_PCT, DEF_PCT, BREAK_EFFECT, ENERGY_REGEN_RATE
     );
 
+    private static final Map<String, Stat> BY_ID = Arrays.stream(values())
+        .collect(Collectors.toUnmodifiableMap(Stat::name, Function.identity()));
+
     private final String[] names;
 
     Stat(String... name) {
@@ -53,6 +59,31 @@ public enum Stat {
         return Arrays.stream(names).anyMatch(target::equalsIgnoreCase);
     }
 
+    public long bit() {
+        return 1L << ordinal();
+    }
+
+    public static long maskOf(Stat... stats) {
+        long mask = 0;
+        for (Stat stat : stats)
+            if (stat != null)
+                mask |= stat.bit();
+
+        return mask;
+    }
+
+    public static Stat fromId(String id) {
+        return BY_ID.get(id);
+    }
+
+    public static Stat fromName(String name) {
+        for (Stat stat : values())
+            if (stat.matches(name))
+                return stat;
+
+        return null;
+    }
+
     @Override
     public String toString() {
         return names[0];
@@ -0,0 +1,35 @@
+package ro.cofi.relicdb.model;
+
+import ro.cofi.relicdb.logic.RelicPart;
+import ro.cofi.relicdb.logic.RelicType;
+
+import java.util.Map;
+
+public record CharacterEntry(
+    int id, String name, String url,
+    WeaponOption[] relicOptions, WeaponOption[] ornamentOptions,
+    Map<RelicPart, StatOptions> mainStats, StatOptions[] subStats, long[] subStatMasks
+) {
+
+    // substat lines are tracked as bits of a single long
+    public static final int MAX_SUB_STAT_LINES = Long.SIZE;
+
+    public long getMetSubStatLines(long ownedSubStatMask) {
+        long metSubStatLines = 0;
+
+        for (int i = 0; i < subStatMasks.length; i++)
+            if ((subStatMasks[i] & ownedSubStatMask) != 0)
+                metSubStatLines |= 1L << i;
+
+        return metSubStatLines;
+    }
+
+    public WeaponOption[] getWeaponOptions(RelicType type) {
+        return type == RelicType.RELIC ? relicOptions : ornamentOptions;
+    }
+
+    public StatOptions getMainStats(RelicPart part) {
+        return mainStats.get(part);
+    }
+
+}
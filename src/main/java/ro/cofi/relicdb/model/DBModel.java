@@ -0,0 +1,296 @@
+package ro.cofi.relicdb.model;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ro.cofi.relicdb.logic.RelicPart;
+import ro.cofi.relicdb.logic.RelicType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class DBModel {
+
+    private static final Logger LOGGER = LogManager.getLogger(DBModel.class);
+
+    public static final int UNKNOWN_SET = -1;
+
+    // v1 stores stats as scraped text, v2 stores them as canonical Stat names
+    public static final String SCHEMA_VERSION_KEY = "schemaVersion";
+    public static final int SCHEMA_V1 = 1;
+    public static final int SCHEMA_V2 = 2;
+    public static final int CURRENT_SCHEMA_VERSION = SCHEMA_V2;
+
+    // rough per-object costs for the size estimate, assuming compressed pointers
+    private static final int OBJECT_OVERHEAD = 16;
+    private static final int ARRAY_OVERHEAD = 16;
+    private static final int STRING_OVERHEAD = 40;
+    private static final int MAP_ENTRY_OVERHEAD = 32;
+
+    private final int schemaVersion;
+
+    // set names are interned into a single table, their index being the set ID
+    private final List<String> setNames;
+    private final Map<String, Integer> setIds;
+    private final Map<RelicType, List<String>> weaponNames;
+    private final List<CharacterEntry> characters;
+    private final Map<RelicType, SetIndex> setIndices = new EnumMap<>(RelicType.class);
+    private final DBStatistics statistics;
+    private final RecommendationIndex recommendationIndex;
+
+    private DBModel(
+        int schemaVersion, List<String> setNames, Map<String, Integer> setIds,
+        Map<RelicType, List<String>> weaponNames, List<CharacterEntry> characters
+    ) {
+        this.schemaVersion = schemaVersion;
+        this.setNames = Collections.unmodifiableList(setNames);
+        this.setIds = Collections.unmodifiableMap(setIds);
+        this.weaponNames = Collections.unmodifiableMap(weaponNames);
+        this.characters = Collections.unmodifiableList(characters);
+
+        for (RelicType type : RelicType.values())
+            setIndices.put(type, SetIndex.build(type, setNames.size(), characters));
+
+        statistics = DBStatistics.build(characters);
+        recommendationIndex = RecommendationIndex.build(setNames, characters);
+    }
+
+    public static DBModel compile(JsonObject data) {
+        Builder builder = new Builder();
+
+        builder.setSchemaVersion(readSchemaVersion(data));
+
+        for (RelicType type : RelicType.values())
+            builder.setWeaponNames(type, data.getAsJsonArray(type.getJsonKey()).asList().stream()
+                .map(JsonElement::getAsString)
+                .toList());
+
+        JsonArray charactersArray = data.getAsJsonArray("characters");
+        for (int i = 0; i < charactersArray.size(); i++)
+            builder.addCharacter(builder.compileCharacter(i, charactersArray.get(i).getAsJsonObject()));
+
+        return builder.build();
+    }
+
+    public static int readSchemaVersion(JsonObject data) {
+        JsonElement schemaVersion = data.get(SCHEMA_VERSION_KEY);
+        return schemaVersion != null ? checkSchemaVersion(schemaVersion.getAsInt()) : SCHEMA_V1;
+    }
+
+    public static int checkSchemaVersion(int version) {
+        if (version < SCHEMA_V1 || version > CURRENT_SCHEMA_VERSION)
+            throw new IllegalArgumentException(String.format("Unsupported DB schema version %d", version));
+
+        return version;
+    }
+
+    public int getSchemaVersion() {
+        return schemaVersion;
+    }
+
+    public int getSetId(String setName) {
+        return setIds.getOrDefault(setName, UNKNOWN_SET);
+    }
+
+    public List<String> getSetNames() {
+        return setNames;
+    }
+
+    public String getSetName(int setId) {
+        return setNames.get(setId);
+    }
+
+    public List<String> getWeaponNames(RelicType type) {
+        return weaponNames.get(type);
+    }
+
+    public List<CharacterEntry> getCharacters() {
+        return characters;
+    }
+
+    public CharacterEntry getCharacter(int characterId) {
+        return characters.get(characterId);
+    }
+
+    public SetIndex getSetIndex(RelicType type) {
+        return setIndices.get(type);
+    }
+
+    public DBStatistics getStatistics() {
+        return statistics;
+    }
+
+    public RecommendationIndex getRecommendationIndex() {
+        return recommendationIndex;
+    }
+
+    // an estimate of the heap retained by this model, meant for bounding caches rather than for accuracy
+    public long estimateRetainedSize() {
+        long size = OBJECT_OVERHEAD;
+
+        for (String setName : setNames)
+            size += estimateSize(setName) + MAP_ENTRY_OVERHEAD;
+
+        for (CharacterEntry character : characters) {
+            size += OBJECT_OVERHEAD + estimateSize(character.name()) + estimateSize(character.url());
+
+            for (RelicType type : RelicType.values())
+                for (WeaponOption weaponOption : character.getWeaponOptions(type))
+                    // each set of an option is also posted once in the set index, and recommended at most once
+                    size += OBJECT_OVERHEAD + ARRAY_OVERHEAD + (long) weaponOption.setIds().length
+                        * (Integer.BYTES + 2 * OBJECT_OVERHEAD);
+
+            for (StatOptions mainStats : character.mainStats().values())
+                size += MAP_ENTRY_OVERHEAD + estimateSize(mainStats);
+
+            for (StatOptions subStats : character.subStats())
+                size += Long.BYTES + estimateSize(subStats);
+        }
+
+        return size;
+    }
+
+    private static long estimateSize(StatOptions statOptions) {
+        long size = OBJECT_OVERHEAD + estimateSize(statOptions.text()) + 2L * ARRAY_OVERHEAD
+            + (long) statOptions.size() * Integer.BYTES;
+
+        for (String option : statOptions.options())
+            size += estimateSize(option);
+
+        return size;
+    }
+
+    private static long estimateSize(String text) {
+        return STRING_OVERHEAD + text.length();
+    }
+
+    public static class Builder {
+
+        private final List<String> setNames = new ArrayList<>();
+        private final Map<String, Integer> setIds = new HashMap<>();
+        private final Map<RelicType, List<String>> weaponNames = new EnumMap<>(RelicType.class);
+        private final List<CharacterEntry> characters = new ArrayList<>();
+
+        private int schemaVersion = SCHEMA_V1;
+
+        public Builder setSchemaVersion(int schemaVersion) {
+            this.schemaVersion = checkSchemaVersion(schemaVersion);
+            return this;
+        }
+
+        public Builder setWeaponNames(RelicType type, List<String> names) {
+            names.forEach(this::internSet);
+            weaponNames.put(type, List.copyOf(names));
+            return this;
+        }
+
+        // characters must be added in the order of their IDs
+        public Builder addCharacter(CharacterEntry character) {
+            if (character.id() != characters.size())
+                throw new IllegalArgumentException(String.format(
+                    "Expected character %d, got %d", characters.size(), character.id()
+                ));
+
+            characters.add(character);
+            return this;
+        }
+
+        // safe to call concurrently, as long as the results are added in order
+        public CharacterEntry compileCharacter(int id, JsonObject character) {
+            String name = character.get("name").getAsString();
+
+            WeaponOption[] relicOptions = compileWeaponOptions(
+                name, character.getAsJsonArray(RelicType.RELIC.getJsonKey())
+            );
+            WeaponOption[] ornamentOptions = compileWeaponOptions(
+                name, character.getAsJsonArray(RelicType.ORNAMENT.getJsonKey())
+            );
+
+            JsonObject mainStatsObject = character.getAsJsonObject("mainStats");
+            Map<RelicPart, StatOptions> mainStats = new EnumMap<>(RelicPart.class);
+            for (RelicPart part : RelicPart.values()) {
+                String jsonKey = part.getJsonKey();
+                if (jsonKey != null) // some relics have fixed main stats
+                    mainStats.put(part, compileStatOptions(mainStatsObject.get(jsonKey)));
+            }
+
+            JsonArray subStatsArray = character.getAsJsonArray("subStats");
+            if (subStatsArray.size() > CharacterEntry.MAX_SUB_STAT_LINES)
+                throw new IllegalArgumentException(String.format(
+                    "Character \"%s\" has more than %d substat lines", name, CharacterEntry.MAX_SUB_STAT_LINES
+                ));
+
+            StatOptions[] subStats = new StatOptions[subStatsArray.size()];
+            long[] subStatMasks = new long[subStats.length];
+            for (int i = 0; i < subStats.length; i++) {
+                subStats[i] = compileStatOptions(subStatsArray.get(i));
+                subStatMasks[i] = subStats[i].mask();
+            }
+
+            return new CharacterEntry(
+                id, name, character.get("url").getAsString(),
+                relicOptions, ornamentOptions, Collections.unmodifiableMap(mainStats), subStats, subStatMasks
+            );
+        }
+
+        private StatOptions compileStatOptions(JsonElement element) {
+            // the schema version may come after the characters in a streamed file, rely on the shape instead
+            if (element.isJsonArray())
+                return StatOptions.fromCanonical(element.getAsJsonArray().asList().stream()
+                    .map(JsonElement::getAsString)
+                    .toList());
+
+            return StatOptions.parse(element.getAsString());
+        }
+
+        private WeaponOption[] compileWeaponOptions(String characterName, JsonArray weaponOptionsArray) {
+            List<WeaponOption> weaponOptions = new ArrayList<>(weaponOptionsArray.size());
+
+            for (JsonElement weaponOptionElement : weaponOptionsArray) {
+                JsonObject weaponOption = weaponOptionElement.getAsJsonObject();
+                JsonArray weaponSets = weaponOption.getAsJsonArray("sets");
+
+                // a set's partner is the other set of its option, so an option is either one set or a 2+2 combo
+                // anything else is a formatting quirk of the site, which should not make the whole version unusable
+                if (weaponSets.size() > WeaponOption.MAX_SETS) {
+                    LOGGER.warn(
+                        "Skipping an option of character \"{}\" with more than {} sets: {}",
+                        characterName, WeaponOption.MAX_SETS, weaponOption
+                    );
+                    continue;
+                }
+
+                int[] weaponSetIds = new int[weaponSets.size()];
+                for (int j = 0; j < weaponSetIds.length; j++)
+                    weaponSetIds[j] = internSet(weaponSets.get(j).getAsJsonObject().get("name").getAsString());
+
+                weaponOptions.add(new WeaponOption(weaponOption.get("rank").getAsInt(), weaponSetIds));
+            }
+
+            return weaponOptions.toArray(new WeaponOption[0]);
+        }
+
+        public synchronized int internSet(String setName) {
+            return setIds.computeIfAbsent(setName, name -> {
+                setNames.add(name);
+                return setNames.size() - 1;
+            });
+        }
+
+        public DBModel build() {
+            for (RelicType type : RelicType.values())
+                if (!weaponNames.containsKey(type))
+                    throw new IllegalStateException(String.format("Missing the \"%s\" set list", type.getJsonKey()));
+
+            return new DBModel(schemaVersion, setNames, setIds, weaponNames, characters);
+        }
+
+    }
+
+}
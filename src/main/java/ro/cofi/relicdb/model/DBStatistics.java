@@ -0,0 +1,111 @@
+package ro.cofi.relicdb.model;
+
+import ro.cofi.relicdb.logic.RelicPart;
+import ro.cofi.relicdb.logic.Stat;
+
+import java.util.BitSet;
+import java.util.List;
+
+// Which characters accept each stat, gathered once per DB - used to narrow down and order analysis predicates.
+public class DBStatistics {
+
+    private final int characterCount;
+
+    // indexed by part, then by stat - null for parts with a fixed main stat
+    private final BitSet[][] mainStatCharacters;
+    // indexed by stat - characters with at least one substat line accepting it
+    private final BitSet[] subStatCharacters;
+
+    // the cardinalities of the sets above, so that predicates can be ordered without touching them
+    private final int[][] mainStatCounts;
+    private final int[] subStatCounts;
+
+    private DBStatistics(int characterCount, BitSet[][] mainStatCharacters, BitSet[] subStatCharacters) {
+        this.characterCount = characterCount;
+        this.mainStatCharacters = mainStatCharacters;
+        this.subStatCharacters = subStatCharacters;
+
+        mainStatCounts = new int[mainStatCharacters.length][];
+        for (int i = 0; i < mainStatCharacters.length; i++)
+            if (mainStatCharacters[i] != null)
+                mainStatCounts[i] = countAll(mainStatCharacters[i]);
+
+        subStatCounts = countAll(subStatCharacters);
+    }
+
+    static DBStatistics build(List<CharacterEntry> characters) {
+        Stat[] stats = Stat.values();
+        RelicPart[] parts = RelicPart.values();
+
+        BitSet[][] mainStatCharacters = new BitSet[parts.length][];
+        BitSet[] subStatCharacters = newBitSets(stats.length, characters.size());
+
+        for (RelicPart part : parts)
+            if (part.getJsonKey() != null)
+                mainStatCharacters[part.ordinal()] = newBitSets(stats.length, characters.size());
+
+        for (CharacterEntry character : characters) {
+            for (RelicPart part : parts) {
+                StatOptions mainStats = character.getMainStats(part);
+                if (mainStats != null)
+                    setAll(mainStatCharacters[part.ordinal()], mainStats.mask(), character.id());
+            }
+
+            long subStatMask = 0;
+            for (long lineMask : character.subStatMasks())
+                subStatMask |= lineMask;
+
+            setAll(subStatCharacters, subStatMask, character.id());
+        }
+
+        return new DBStatistics(characters.size(), mainStatCharacters, subStatCharacters);
+    }
+
+    private static BitSet[] newBitSets(int count, int size) {
+        BitSet[] bitSets = new BitSet[count];
+        for (int i = 0; i < count; i++)
+            bitSets[i] = new BitSet(size);
+
+        return bitSets;
+    }
+
+    private static int[] countAll(BitSet[] bitSets) {
+        int[] counts = new int[bitSets.length];
+        for (int i = 0; i < bitSets.length; i++)
+            counts[i] = bitSets[i].cardinality();
+
+        return counts;
+    }
+
+    private static void setAll(BitSet[] statCharacters, long statMask, int characterId) {
+        for (long mask = statMask; mask != 0; mask &= mask - 1)
+            statCharacters[Long.numberOfTrailingZeros(mask)].set(characterId);
+    }
+
+    public int getCharacterCount() {
+        return characterCount;
+    }
+
+    public boolean hasFixedMainStat(RelicPart part) {
+        return mainStatCharacters[part.ordinal()] == null;
+    }
+
+    // characters for which the main stat is ideal on the given part - do not modify
+    public BitSet getMainStatCharacters(RelicPart part, Stat stat) {
+        return mainStatCharacters[part.ordinal()][stat.ordinal()];
+    }
+
+    public int getMainStatCount(RelicPart part, Stat stat) {
+        return mainStatCounts[part.ordinal()][stat.ordinal()];
+    }
+
+    // characters with at least one substat line accepting the given stat - do not modify
+    public BitSet getSubStatCharacters(Stat stat) {
+        return subStatCharacters[stat.ordinal()];
+    }
+
+    public int getSubStatCount(Stat stat) {
+        return subStatCounts[stat.ordinal()];
+    }
+
+}
@@ -0,0 +1,199 @@
+package ro.cofi.relicdb.model;
+
+import ro.cofi.relicdb.logic.RelicPart;
+import ro.cofi.relicdb.logic.RelicType;
+import ro.cofi.relicdb.logic.Stat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// The reverse of the set index - what each character wants in every slot, gathered once per DB.
+// Main stat and substat recommendations only depend on the stat options, so characters with equal options share them.
+public class RecommendationIndex {
+
+    private static final Stat[] STATS = Stat.values();
+
+    // indexed by character ID
+    private final CharacterRecommendations[] recommendations;
+    private final Map<String, List<CharacterRecommendations>> recommendationsByName;
+
+    private RecommendationIndex(
+        CharacterRecommendations[] recommendations, Map<String, List<CharacterRecommendations>> recommendationsByName
+    ) {
+        this.recommendations = recommendations;
+        this.recommendationsByName = recommendationsByName;
+    }
+
+    static RecommendationIndex build(List<String> setNames, List<CharacterEntry> characters) {
+        CharacterRecommendations[] recommendations = new CharacterRecommendations[characters.size()];
+        Map<String, List<CharacterRecommendations>> recommendationsByName = new HashMap<>();
+
+        Map<List<Long>, Map<RelicPart, MainStatRecommendation>> sharedMainStats = new HashMap<>();
+        Map<List<String>, List<SubStatRecommendation>> sharedSubStats = new HashMap<>();
+
+        for (CharacterEntry character : characters) {
+            Map<RelicType, List<SetRecommendation>> sets = new EnumMap<>(RelicType.class);
+            for (RelicType type : RelicType.values())
+                sets.put(type, rankSets(setNames, character.getWeaponOptions(type)));
+
+            Map<RelicPart, MainStatRecommendation> mainStats = sharedMainStats.computeIfAbsent(
+                getMainStatKey(character), key -> rankMainStats(character)
+            );
+            List<SubStatRecommendation> subStats = sharedSubStats.computeIfAbsent(
+                getSubStatKey(character), key -> rankSubStats(character)
+            );
+
+            CharacterRecommendations characterRecommendations = new CharacterRecommendations(
+                character, Collections.unmodifiableMap(sets), mainStats, subStats
+            );
+
+            recommendations[character.id()] = characterRecommendations;
+            recommendationsByName.computeIfAbsent(character.name(), name -> new ArrayList<>(1))
+                .add(characterRecommendations);
+        }
+
+        recommendationsByName.replaceAll((name, list) -> List.copyOf(list));
+
+        return new RecommendationIndex(recommendations, recommendationsByName);
+    }
+
+    // best rank first - a set appearing in multiple options is only listed with its best one
+    private static List<SetRecommendation> rankSets(List<String> setNames, WeaponOption[] weaponOptions) {
+        WeaponOption[] sortedOptions = weaponOptions.clone();
+        Arrays.sort(sortedOptions, Comparator.comparingInt(WeaponOption::rank));
+
+        List<SetRecommendation> sets = new ArrayList<>();
+        boolean[] listed = new boolean[setNames.size()];
+
+        for (WeaponOption weaponOption : sortedOptions) {
+            int[] setIds = weaponOption.setIds();
+
+            for (int i = 0; i < setIds.length; i++) {
+                if (listed[setIds[i]])
+                    continue;
+
+                int otherSetId = weaponOption.getOtherSetId(i);
+
+                listed[setIds[i]] = true;
+                sets.add(new SetRecommendation(
+                    setNames.get(setIds[i]), weaponOption.rank(),
+                    otherSetId == DBModel.UNKNOWN_SET ? null : setNames.get(otherSetId)
+                ));
+            }
+        }
+
+        return Collections.unmodifiableList(sets);
+    }
+
+    private static List<Long> getMainStatKey(CharacterEntry character) {
+        List<Long> key = new ArrayList<>();
+        for (RelicPart part : RelicPart.values()) {
+            StatOptions mainStats = character.getMainStats(part);
+            key.add(mainStats != null ? mainStats.mask() : 0);
+        }
+
+        return key;
+    }
+
+    private static List<String> getSubStatKey(CharacterEntry character) {
+        List<String> key = new ArrayList<>(character.subStats().length);
+        for (StatOptions subStats : character.subStats())
+            key.add(subStats.text());
+
+        return key;
+    }
+
+    private static Map<RelicPart, MainStatRecommendation> rankMainStats(CharacterEntry character) {
+        Map<RelicPart, MainStatRecommendation> mainStats = new EnumMap<>(RelicPart.class);
+
+        for (RelicPart part : RelicPart.values()) {
+            StatOptions options = character.getMainStats(part);
+
+            // fixed main stats are always ideal
+            if (options == null) {
+                mainStats.put(part, new MainStatRecommendation(part.getAvailableStats(), List.of()));
+                continue;
+            }
+
+            // ideal stats keep the order of the options
+            List<Stat> idealStats = new ArrayList<>();
+            for (int statId : options.statIds())
+                if (statId != StatOptions.UNRESOLVED && !idealStats.contains(STATS[statId]))
+                    idealStats.add(STATS[statId]);
+
+            List<Stat> otherStats = part.getAvailableStats().stream()
+                .filter(stat -> !options.contains(stat))
+                .toList();
+
+            mainStats.put(part, new MainStatRecommendation(List.copyOf(idealStats), otherStats));
+        }
+
+        return Collections.unmodifiableMap(mainStats);
+    }
+
+    // stats meeting the most lines first, then the ones meeting the earliest line
+    private static List<SubStatRecommendation> rankSubStats(CharacterEntry character) {
+        long[] subStatMasks = character.subStatMasks();
+        List<SubStatRecommendation> subStats = new ArrayList<>();
+
+        // only the stats accepted by at least one line
+        long acceptedStats = 0;
+        for (long lineMask : subStatMasks)
+            acceptedStats |= lineMask;
+
+        for (long mask = acceptedStats; mask != 0; mask &= mask - 1) {
+            Stat stat = STATS[Long.numberOfTrailingZeros(mask)];
+            long metLines = character.getMetSubStatLines(stat.bit());
+
+            List<String> lines = new ArrayList<>(Long.bitCount(metLines));
+            for (int i = 0; i < subStatMasks.length; i++)
+                if ((metLines & (1L << i)) != 0)
+                    lines.add(character.subStats()[i].text());
+
+            subStats.add(new SubStatRecommendation(stat, metLines, Collections.unmodifiableList(lines)));
+        }
+
+        subStats.sort(Comparator.comparingInt((SubStatRecommendation subStat) -> -subStat.lines().size())
+            .thenComparingLong(subStat -> Long.numberOfTrailingZeros(subStat.metLines())));
+
+        return Collections.unmodifiableList(subStats);
+    }
+
+    public CharacterRecommendations get(int characterId) {
+        return recommendations[characterId];
+    }
+
+    // names are not unique, so every character with the name is returned
+    public List<CharacterRecommendations> find(String characterName) {
+        return recommendationsByName.getOrDefault(characterName, List.of());
+    }
+
+    // sets which are not listed are not recommended at all
+    public record CharacterRecommendations(
+        CharacterEntry character,
+        Map<RelicType, List<SetRecommendation>> sets,
+        Map<RelicPart, MainStatRecommendation> mainStats,
+        List<SubStatRecommendation> subStats
+    ) { }
+
+    // the other set is null unless the set is part of a 2+2 combo
+    public record SetRecommendation(String setName, int rank, String otherSetName) {
+
+        public boolean isIdeal() {
+            return rank == 1;
+        }
+
+    }
+
+    public record MainStatRecommendation(List<Stat> idealStats, List<Stat> otherStats) { }
+
+    // the met lines are bits indexed by the substat lines of the character
+    public record SubStatRecommendation(Stat stat, long metLines, List<String> lines) { }
+
+}
@@ -0,0 +1,73 @@
+package ro.cofi.relicdb.model;
+
+import ro.cofi.relicdb.logic.RelicType;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+public class SetIndex {
+
+    private static final SetPosting[] NO_POSTINGS = new SetPosting[0];
+
+    // indexed by set ID - postings are ordered by character, then by option
+    private final SetPosting[][] postings;
+    private final BitSet[] coverage;
+    private final int[] coverageCounts;
+    private final BitSet noCoverage = new BitSet();
+
+    private SetIndex(SetPosting[][] postings, BitSet[] coverage) {
+        this.postings = postings;
+        this.coverage = coverage;
+
+        coverageCounts = new int[coverage.length];
+        for (int i = 0; i < coverage.length; i++)
+            coverageCounts[i] = coverage[i].cardinality();
+    }
+
+    static SetIndex build(RelicType type, int setCount, List<CharacterEntry> characters) {
+        List<List<SetPosting>> postingLists = new ArrayList<>(setCount);
+        BitSet[] coverage = new BitSet[setCount];
+
+        for (int i = 0; i < setCount; i++) {
+            postingLists.add(new ArrayList<>());
+            coverage[i] = new BitSet(characters.size());
+        }
+
+        for (CharacterEntry character : characters) {
+            for (WeaponOption weaponOption : character.getWeaponOptions(type)) {
+                int[] setIds = weaponOption.setIds();
+
+                for (int i = 0; i < setIds.length; i++) {
+                    if (weaponOption.isRepeated(i))
+                        continue;
+
+                    postingLists.get(setIds[i]).add(new SetPosting(
+                        character.id(), weaponOption.rank(), weaponOption.getOtherSetId(i)
+                    ));
+                    coverage[setIds[i]].set(character.id());
+                }
+            }
+        }
+
+        SetPosting[][] postings = new SetPosting[setCount][];
+        for (int i = 0; i < setCount; i++)
+            postings[i] = postingLists.get(i).toArray(SetPosting[]::new);
+
+        return new SetIndex(postings, coverage);
+    }
+
+    public SetPosting[] getPostings(int setId) {
+        return setId == DBModel.UNKNOWN_SET ? NO_POSTINGS : postings[setId];
+    }
+
+    public BitSet getCoverage(int setId) {
+        return setId == DBModel.UNKNOWN_SET ? noCoverage : coverage[setId];
+    }
+
+    // the number of characters using the set
+    public int getCoverageCount(int setId) {
+        return setId == DBModel.UNKNOWN_SET ? 0 : coverageCounts[setId];
+    }
+
+}
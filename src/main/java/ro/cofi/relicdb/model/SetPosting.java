@@ -0,0 +1,3 @@
+package ro.cofi.relicdb.model;
+
+public record SetPosting(int characterId, int rank, int otherSetId) { }
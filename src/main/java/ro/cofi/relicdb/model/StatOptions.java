@@ -0,0 +1,73 @@
+package ro.cofi.relicdb.model;
+
+import ro.cofi.relicdb.logic.Stat;
+
+import java.util.List;
+
+public record StatOptions(String text, String[] options, int[] statIds, long mask) {
+
+    public static final int UNRESOLVED = -1;
+
+    public static final String SEPARATOR = " / ";
+
+    public static StatOptions parse(String text) {
+        String[] options = text.split(SEPARATOR);
+        int[] statIds = new int[options.length];
+
+        for (int i = 0; i < options.length; i++) {
+            Stat stat = Stat.fromName(options[i]);
+            statIds[i] = stat != null ? stat.ordinal() : UNRESOLVED;
+        }
+
+        return of(text, options, statIds);
+    }
+
+    public static StatOptions fromCanonical(List<String> statIds) {
+        String[] options = new String[statIds.size()];
+        int[] ids = new int[options.length];
+
+        for (int i = 0; i < options.length; i++) {
+            // canonical names are exact enum names, anything else was left unresolved by the scraper
+            Stat stat = Stat.fromId(statIds.get(i));
+            options[i] = stat != null ? stat.toString() : statIds.get(i);
+            ids[i] = stat != null ? stat.ordinal() : UNRESOLVED;
+        }
+
+        return of(String.join(SEPARATOR, options), options, ids);
+    }
+
+    public static StatOptions of(String text, String[] options, int[] statIds) {
+        long mask = 0;
+        for (int statId : statIds)
+            if (statId != UNRESOLVED)
+                mask |= 1L << statId;
+
+        return new StatOptions(text, options, statIds, mask);
+    }
+
+    public int size() {
+        return statIds.length;
+    }
+
+    public boolean contains(Stat stat) {
+        return (mask & stat.bit()) != 0;
+    }
+
+    public String joinExcluding(Stat stat) {
+        int statId = stat.ordinal();
+
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < statIds.length; i++) {
+            if (statIds[i] == statId)
+                continue;
+
+            if (!builder.isEmpty())
+                builder.append(SEPARATOR);
+
+            builder.append(options[i]);
+        }
+
+        return builder.isEmpty() ? null : builder.toString();
+    }
+
+}
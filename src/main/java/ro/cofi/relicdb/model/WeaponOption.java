@@ -0,0 +1,29 @@
+package ro.cofi.relicdb.model;
+
+public record WeaponOption(int rank, int[] setIds) {
+
+    public static final int MAX_SETS = 2;
+
+    public int indexOf(int setId) {
+        for (int i = 0; i < setIds.length; i++)
+            if (setIds[i] == setId)
+                return i;
+
+        return -1;
+    }
+
+    // the set an option pairs with the one at the given index, or null for a single set
+    public int getOtherSetId(int index) {
+        return setIds.length == 1 ? DBModel.UNKNOWN_SET : setIds[1 - index];
+    }
+
+    // a set listed twice is only looked at the first time, like the first match of a name used to be
+    public boolean isRepeated(int index) {
+        for (int i = 0; i < index; i++)
+            if (setIds[i] == setIds[index])
+                return true;
+
+        return false;
+    }
+
+}
@@ -1,62 +1,49 @@
 package ro.cofi.relicdb.scoring;
 
 import ro.cofi.relicdb.HTMLUtil;
+import ro.cofi.relicdb.logic.Stat;
+import ro.cofi.relicdb.model.CharacterEntry;
+import ro.cofi.relicdb.model.StatOptions;
 
 import java.util.ArrayList;
 import java.util.List;
 
+// Only keeps references to what was matched - the description is rendered when it is actually displayed.
 public class Score {
 
     private static final int MAX_SCORE_DISPLAY = 10;
-    private static final int MAX_SCORE = MainStatScoreType.IDEAL.getScore() +
+    public static final int MAX_SCORE = MainStatScoreType.IDEAL.getScore() +
                                          RankScoreType.IDEAL.getScore() +
                                          computeSubStatScore(4);
 
+    private final CharacterEntry character;
     private final int totalScore;
-    private final String character;
-    private final String description;
+    private final RankScoreType rankScoreType;
+    private final String otherSet;
+    private final MainStatScoreType mainStatScoreType;
+    private final StatOptions mainStatOptions;
+    private final Stat mainStat;
+    private final long metSubStatLines;
 
     public Score(
-        String character, String characterURL,
-        RankScore rankScore, MainStatScore mainStatScore, List<SubStatScore> subStatScores
+        CharacterEntry character,
+        RankScoreType rankScoreType, String otherSet,
+        MainStatScoreType mainStatScoreType, StatOptions mainStatOptions, Stat mainStat,
+        long metSubStatLines
     ) {
         this.character = character;
-
-        this.totalScore = rankScore.type().getScore() +
-                          (mainStatScore != null
-                              ? mainStatScore.type().getScore()
+        this.rankScoreType = rankScoreType;
+        this.otherSet = otherSet;
+        this.mainStatScoreType = mainStatScoreType;
+        this.mainStatOptions = mainStatOptions;
+        this.mainStat = mainStat;
+        this.metSubStatLines = metSubStatLines;
+
+        this.totalScore = rankScoreType.getScore() +
+                          (mainStatScoreType != null
+                              ? mainStatScoreType.getScore()
                               : MainStatScoreType.IDEAL.getScore()) +
-                          computeSubStatScore(subStatScores);
-
-        String header = String.format(
-            "<b><a href=\"%s\">%s</a></b>: Score = %s",
-            characterURL, character, scoreDisplay(totalScore)
-        );
-        String setDescription = rankScore.getHTML();
-        String mainStatDescription = mainStatScore != null ? mainStatScore.getHTML() : null;
-
-        String subStatsHeader = "Substats:";
-        List<String> subStatDescriptions = subStatScores.stream().map(SubStatScore::getHTML).toList();
-
-        String subStatsDescription = HTMLUtil.wrapInLineBreaks(
-            List.of(subStatsHeader, HTMLUtil.wrapInList(subStatDescriptions))
-        );
-
-        List<String> descriptionParts = new ArrayList<>();
-        descriptionParts.add(setDescription);
-        if (mainStatDescription != null)
-            descriptionParts.add(mainStatDescription);
-        descriptionParts.add(subStatsDescription);
-
-        this.description = HTMLUtil.wrapInLineBreaks(List.of(header, HTMLUtil.wrapInList(descriptionParts)));
-    }
-
-    private static int computeSubStatScore(List<SubStatScore> subStatScores) {
-        int count = (int) subStatScores.stream()
-            .filter(subStatScore -> subStatScore.type() == SubStatScoreType.MET)
-            .count();
-
-        return computeSubStatScore(count);
+                          computeSubStatScore(getMetSubStatCount());
     }
 
     private static int computeSubStatScore(int count) {
@@ -79,11 +66,87 @@ public class Score {
         return totalScore;
     }
 
+    public int getCharacterId() {
+        return character.id();
+    }
+
     public String getCharacter() {
-        return character;
+        return character.name();
+    }
+
+    public String getCharacterURL() {
+        return character.url();
+    }
+
+    public RankScoreType getRankScoreType() {
+        return rankScoreType;
+    }
+
+    // null for relic parts with a fixed main stat
+    public MainStatScoreType getMainStatScoreType() {
+        return mainStatScoreType;
+    }
+
+    public int getMetSubStatCount() {
+        return Long.bitCount(metSubStatLines);
+    }
+
+    public RankScore getRankScore() {
+        return new RankScore(rankScoreType, otherSet);
+    }
+
+    public MainStatScore getMainStatScore() {
+        if (mainStatScoreType == null)
+            return null;
+
+        String otherMainStat = null;
+        if (mainStatScoreType == MainStatScoreType.UNACCEPTABLE) {
+            otherMainStat = mainStatOptions.text();
+        } else if (mainStatOptions.size() > 1) {
+            // concatenate all options except the one we found
+            otherMainStat = mainStatOptions.joinExcluding(mainStat);
+        }
+
+        return new MainStatScore(mainStatScoreType, otherMainStat);
+    }
+
+    public List<SubStatScore> getSubStatScores() {
+        StatOptions[] subStats = character.subStats();
+        List<SubStatScore> subStatScores = new ArrayList<>(subStats.length);
+
+        for (int i = 0; i < subStats.length; i++) {
+            boolean match = (metSubStatLines & (1L << i)) != 0;
+
+            SubStatScoreType subStatScoreType = match ? SubStatScoreType.MET : SubStatScoreType.UNMET;
+
+            subStatScores.add(new SubStatScore(subStatScoreType, subStats[i].text()));
+        }
+        return subStatScores;
     }
 
     public String getDescription() {
-        return description;
+        String header = String.format(
+            "<b><a href=\"%s\">%s</a></b>: Score = %s",
+            character.url(), character.name(), scoreDisplay(totalScore)
+        );
+        String setDescription = getRankScore().getHTML();
+
+        MainStatScore mainStatScore = getMainStatScore();
+        String mainStatDescription = mainStatScore != null ? mainStatScore.getHTML() : null;
+
+        String subStatsHeader = "Substats:";
+        List<String> subStatDescriptions = getSubStatScores().stream().map(SubStatScore::getHTML).toList();
+
+        String subStatsDescription = HTMLUtil.wrapInLineBreaks(
+            List.of(subStatsHeader, HTMLUtil.wrapInList(subStatDescriptions))
+        );
+
+        List<String> descriptionParts = new ArrayList<>();
+        descriptionParts.add(setDescription);
+        if (mainStatDescription != null)
+            descriptionParts.add(mainStatDescription);
+        descriptionParts.add(subStatsDescription);
+
+        return HTMLUtil.wrapInLineBreaks(List.of(header, HTMLUtil.wrapInList(descriptionParts)));
     }
 }
@@ -0,0 +1,165 @@
+package ro.cofi.relicdb;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Test;
+import ro.cofi.relicdb.io.DBChoice;
+import ro.cofi.relicdb.logic.RelicPart;
+import ro.cofi.relicdb.logic.RelicType;
+import ro.cofi.relicdb.logic.Stat;
+import ro.cofi.relicdb.model.DBModel;
+import ro.cofi.relicdb.scoring.AnalysisFilters;
+import ro.cofi.relicdb.scoring.AnalysisRecipe;
+import ro.cofi.relicdb.scoring.MainStatScoreType;
+import ro.cofi.relicdb.scoring.RankScoreType;
+import ro.cofi.relicdb.scoring.Score;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Top-K selection and pagination must return exactly what sorting every result would, ties included.
+// The generated DB is full of ties: few distinct names, and sets which match through several options.
+class LoadedDBTest {
+
+    private static final long SEED = 42;
+    private static final int CHARACTER_COUNT = 120;
+    private static final int NAME_COUNT = 7;
+    private static final List<String> SET_NAMES = List.of("Set A", "Set B", "Set C", "Set D");
+    private static final AnalysisFilters ALL_RESULTS = new AnalysisFilters(
+        RankScoreType.UNACCEPTABLE.getHigherScores(), MainStatScoreType.UNACCEPTABLE.getHigherScores(), 0
+    );
+
+    @Test
+    void topScoresMatchStableSort() {
+        Random random = new Random(SEED);
+
+        for (int round = 0; round < 20; round++) {
+            LoadedDB loadedDB = new LoadedDB(DBModel.compile(generateDB(random)), DBChoice.DUMMY);
+            AnalysisRecipe recipe = generateRecipe(random);
+
+            // the sorted results go through SCORE_ORDER and the stable List.sort
+            List<String> sorted = describe(loadedDB.getSortedScores(recipe, ALL_RESULTS));
+            assertTrue(sorted.size() > 1, "The recipe should match several characters");
+
+            for (int count = 1; count <= sorted.size(); count++)
+                assertEquals(
+                    sorted.subList(0, count),
+                    describe(loadedDB.computeTopScores(recipe, ALL_RESULTS, count).scores()),
+                    String.format("Top %d of round %d", count, round)
+                );
+        }
+    }
+
+    @Test
+    void pagesMatchStableSort() {
+        Random random = new Random(SEED);
+        int pageSize = 7;
+
+        for (int round = 0; round < 20; round++) {
+            LoadedDB loadedDB = new LoadedDB(DBModel.compile(generateDB(random)), DBChoice.DUMMY);
+            AnalysisRecipe recipe = generateRecipe(random);
+
+            // the first page is selected, the next ones come from the results sorted once the query repeats
+            ResultPage firstPage = loadedDB.getPage(recipe, ALL_RESULTS, 0, pageSize);
+            List<String> paged = new ArrayList<>(describe(firstPage.scores()));
+            for (int offset = pageSize; offset < firstPage.totalCount(); offset += pageSize)
+                paged.addAll(describe(loadedDB.getPage(recipe, ALL_RESULTS, offset, pageSize).scores()));
+
+            LoadedDB uncachedDB = new LoadedDB(loadedDB.getModel(), DBChoice.DUMMY);
+            assertEquals(describe(uncachedDB.getSortedScores(recipe, ALL_RESULTS)), paged, "Round " + round);
+        }
+    }
+
+    private static List<String> describe(List<Score> scores) {
+        return scores.stream().map(score -> score.getCharacterURL() + " " + score.getDescription()).toList();
+    }
+
+    private static AnalysisRecipe generateRecipe(Random random) {
+        RelicPart part = pick(random, RelicType.RELIC.getParts());
+        Stat mainStat = pick(random, part.getAvailableStats());
+
+        List<Stat> subStats = new ArrayList<>(List.of(Stat.values()));
+        subStats.remove(mainStat);
+
+        return new AnalysisRecipe(
+            RelicType.RELIC, part, pick(random, SET_NAMES), mainStat,
+            subStats.remove(random.nextInt(subStats.size())), subStats.remove(random.nextInt(subStats.size())),
+            null, null
+        );
+    }
+
+    private static JsonObject generateDB(Random random) {
+        JsonObject root = new JsonObject();
+        root.addProperty(DBModel.SCHEMA_VERSION_KEY, DBModel.CURRENT_SCHEMA_VERSION);
+
+        for (RelicType type : RelicType.values())
+            root.add(type.getJsonKey(), toArray(SET_NAMES));
+
+        JsonArray characters = new JsonArray();
+        for (int i = 0; i < CHARACTER_COUNT; i++)
+            characters.add(generateCharacter(random, i));
+
+        root.add("characters", characters);
+        return root;
+    }
+
+    private static JsonObject generateCharacter(Random random, int index) {
+        JsonObject character = new JsonObject();
+        character.addProperty("name", "Character " + random.nextInt(NAME_COUNT));
+        character.addProperty("url", "https://example.com/characters/" + index + "/");
+
+        for (RelicType type : RelicType.values()) {
+            JsonArray options = new JsonArray();
+
+            // equal ranks, so that a set listed in several options scores the same in each of them
+            int optionCount = 1 + random.nextInt(3);
+            for (int i = 0; i < optionCount; i++) {
+                JsonObject option = new JsonObject();
+                option.addProperty("rank", 1 + random.nextInt(2));
+
+                JsonArray sets = new JsonArray();
+                int setCount = type == RelicType.RELIC ? 1 + random.nextInt(2) : 1;
+                for (int j = 0; j < setCount; j++) {
+                    JsonObject set = new JsonObject();
+                    set.addProperty("name", pick(random, SET_NAMES));
+                    set.addProperty("count", 4 / setCount);
+                    sets.add(set);
+                }
+
+                option.add("sets", sets);
+                options.add(option);
+            }
+
+            character.add(type.getJsonKey(), options);
+        }
+
+        JsonObject mainStats = new JsonObject();
+        for (RelicPart part : RelicPart.values())
+            if (part.getJsonKey() != null)
+                mainStats.add(part.getJsonKey(), toArray(List.of(pick(random, part.getAvailableStats()).name())));
+
+        character.add("mainStats", mainStats);
+
+        JsonArray subStats = new JsonArray();
+        for (int i = 0; i < 3; i++)
+            subStats.add(toArray(List.of(pick(random, List.of(Stat.values())).name())));
+
+        character.add("subStats", subStats);
+        return character;
+    }
+
+    private static JsonArray toArray(List<String> values) {
+        JsonArray array = new JsonArray();
+        values.forEach(array::add);
+        return array;
+    }
+
+    private static <T> T pick(Random random, List<T> values) {
+        return values.get(random.nextInt(values.size()));
+    }
+
+}
@@ -0,0 +1,270 @@
+package ro.cofi.relicdb.io;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Scrapes a local site serving fixture pages, with latency injected into every character page.
+class DBScraperTest {
+
+    private static final int CHARACTER_COUNT = 24;
+    private static final int PARALLELISM = 8;
+    private static final long LATENCY_MILLIS = 100;
+    // high enough that only the latency and the parallelism limit the scrape
+    private static final double REQUESTS_PER_SECOND = 1000;
+
+    @Test
+    void keepsSiteOrdering() throws IOException {
+        // later characters answer first, so the pages complete in the reverse order
+        try (FixtureSite site = new FixtureSite(index -> (CHARACTER_COUNT - index) * 10L)) {
+            List<String> names = scrapeNames(site, PARALLELISM);
+
+            assertEquals(site.getCharacterNames(), names);
+        }
+    }
+
+    @Test
+    void scrapesConcurrentlyWithinParallelism() throws IOException {
+        try (FixtureSite site = new FixtureSite(index -> LATENCY_MILLIS)) {
+            scrapeNames(site, PARALLELISM);
+
+            // overlapping requests prove the concurrency, without depending on how fast the machine is
+            assertTrue(site.getMaxInFlight() > 1, "Character pages should be requested concurrently");
+            assertTrue(
+                site.getMaxInFlight() <= PARALLELISM,
+                String.format("%d character pages were in flight at once", site.getMaxInFlight())
+            );
+        }
+    }
+
+    @Test
+    void prunesRemovedCharacterPages() throws IOException {
+        Path cacheDir = Files.createTempDirectory("relicdb-page-cache");
+
+        try (FixtureSite site = new FixtureSite(index -> 0L)) {
+            PageCache pageCache = new PageCache(cacheDir);
+            String removedURL = site.getCharacterURL(0);
+            String keptURL = site.getCharacterURL(1);
+
+            new DBScraper(site.getRoot(), PARALLELISM, REQUESTS_PER_SECOND, pageCache).scrape();
+            assertNotNull(pageCache.get(removedURL));
+
+            site.removeCharacter(0);
+            new DBScraper(site.getRoot(), PARALLELISM, REQUESTS_PER_SECOND, pageCache).scrape();
+
+            assertNull(pageCache.get(removedURL));
+            assertNotNull(pageCache.get(keptURL));
+        } finally {
+            deleteRecursively(cacheDir);
+        }
+    }
+
+    private static List<String> scrapeNames(FixtureSite site, int parallelism) throws IOException {
+        Path cacheDir = Files.createTempDirectory("relicdb-page-cache");
+
+        try {
+            JsonArray characters = new DBScraper(
+                site.getRoot(), parallelism, REQUESTS_PER_SECOND, new PageCache(cacheDir)
+            ).scrape().getAsJsonArray("characters");
+
+            List<String> names = new ArrayList<>();
+            for (JsonElement character : characters)
+                names.add(character.getAsJsonObject().get("name").getAsString());
+
+            return names;
+        } finally {
+            deleteRecursively(cacheDir);
+        }
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList())
+                Files.deleteIfExists(path);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Latency {
+        long millisFor(int characterIndex);
+    }
+
+    private static class FixtureSite implements AutoCloseable {
+
+        private static final String CHARACTERS_PATH = "/star-rail/characters/";
+
+        private final HttpServer server;
+        private final ExecutorService executor = Executors.newCachedThreadPool();
+        private final Latency latency;
+        private final List<Integer> characters;
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+
+        FixtureSite(Latency latency) throws IOException {
+            this.latency = latency;
+            this.characters = new ArrayList<>(IntStream.range(0, CHARACTER_COUNT).boxed().toList());
+
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            server.createContext("/star-rail", this::handle);
+            server.setExecutor(executor);
+            server.start();
+        }
+
+        String getRoot() {
+            return String.format("http://localhost:%d", server.getAddress().getPort());
+        }
+
+        String getCharacterURL(int index) {
+            return getRoot() + CHARACTERS_PATH + index;
+        }
+
+        synchronized List<String> getCharacterNames() {
+            return characters.stream().map(FixtureSite::getCharacterName).toList();
+        }
+
+        synchronized void removeCharacter(int index) {
+            characters.remove(Integer.valueOf(index));
+        }
+
+        int getMaxInFlight() {
+            return maxInFlight.get();
+        }
+
+        @Override
+        public void close() {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+            String path = exchange.getRequestURI().getPath();
+
+            try (exchange) {
+                String page;
+                if (path.startsWith(CHARACTERS_PATH))
+                    page = serveCharacter(Integer.parseInt(path.substring(CHARACTERS_PATH.length())));
+                else if (path.equals("/star-rail"))
+                    page = renderCharacterList();
+                else if (path.equals("/star-rail/relics"))
+                    page = renderSets("Relic Set");
+                else if (path.equals("/star-rail/planar-ornaments"))
+                    page = renderSets("Ornament Set");
+                else
+                    page = null;
+
+                if (page == null) {
+                    exchange.sendResponseHeaders(404, -1);
+                    return;
+                }
+
+                byte[] body = page.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        }
+
+        private String serveCharacter(int index) {
+            int current = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(current, Math::max);
+
+            try {
+                TimeUnit.MILLISECONDS.sleep(latency.millisFor(index));
+                return renderCharacter();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        private synchronized String renderCharacterList() {
+            StringBuilder page = new StringBuilder("<html><body>");
+            for (int index : characters)
+                page.append(String.format(
+                    "<a class=\"character-portrait\" href=\"%s%d\"><div class=\"character-name\">%s</div></a>",
+                    CHARACTERS_PATH, index, getCharacterName(index)
+                ));
+
+            return page.append("</body></html>").toString();
+        }
+
+        private static String renderSets(String name) {
+            return String.format(
+                "<html><body><div class=\"light-cones-item\"><div class=\"light-cones-name\">%s</div></div>"
+                    + "</body></html>",
+                name
+            );
+        }
+
+        private static String renderCharacter() {
+            return "<html><body>"
+                + renderWeaponSection("Best Relics", "Relic Set", 4)
+                + renderWeaponSection("Best Ornaments", "Ornament Set", 2)
+                + renderSection(
+                    "Best Stats",
+                    renderStat("<b>Body:</b> CRIT Rate") + renderStat("<b>Feet:</b> SPD")
+                        + renderStat("<b>Planar Sphere:</b> ATK%") + renderStat("<b>Link Rope:</b> ATK%")
+                )
+                + renderSection("Best Substats", renderStat("CRIT Rate / CRIT DMG") + renderStat("SPD"))
+                + "</body></html>";
+        }
+
+        private static String renderWeaponSection(String title, String setName, int count) {
+            return renderSection(title, String.format(
+                "<div class=\"character-info-weapon\"><div class=\"character-info-weapon-rank\">1</div>"
+                    + "<div class=\"character-info-weapon-content\">"
+                    + "<div class=\"character-info-weapon-name\">%s</div>"
+                    + "<div class=\"character-info-weapon-count\">%d</div></div></div>",
+                setName, count
+            ));
+        }
+
+        private static String renderSection(String title, String content) {
+            return String.format(
+                "<div class=\"character-info-build-section\">"
+                    + "<div class=\"character-info-build-section-title\">%s</div>%s</div>",
+                title, content
+            );
+        }
+
+        private static String renderStat(String content) {
+            return String.format("<div class=\"character-info-stats-item\">%s</div>", content);
+        }
+
+        private static String getCharacterName(int index) {
+            return String.format("Character %02d", index);
+        }
+
+    }
+
+}
@@ -0,0 +1,116 @@
+package ro.cofi.relicdb.model;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Test;
+import ro.cofi.relicdb.logic.RelicPart;
+import ro.cofi.relicdb.logic.RelicType;
+import ro.cofi.relicdb.logic.Stat;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DBModelTest {
+
+    // a formatting quirk of the site must not make the whole version unusable
+    @Test
+    void skipsOptionsWithTooManySets() {
+        JsonObject character = createCharacter();
+        character.add(RelicType.RELIC.getJsonKey(), toArray(
+            createOption(1, "Set A", "Set B", "Set C"),
+            createOption(2, "Set A")
+        ));
+
+        DBModel model = DBModel.compile(createDB(character));
+        WeaponOption[] relicOptions = model.getCharacters().get(0).getWeaponOptions(RelicType.RELIC);
+
+        assertEquals(1, relicOptions.length);
+        assertEquals(2, relicOptions[0].rank());
+        assertEquals("Set A", model.getSetNames().get(relicOptions[0].setIds()[0]));
+    }
+
+    @Test
+    void keepsTwoSetOptions() {
+        JsonObject character = createCharacter();
+        character.add(RelicType.RELIC.getJsonKey(), toArray(createOption(1, "Set A", "Set B")));
+
+        DBModel model = DBModel.compile(createDB(character));
+        WeaponOption relicOption = model.getCharacters().get(0).getWeaponOptions(RelicType.RELIC)[0];
+
+        assertEquals(List.of("Set A", "Set B"), List.of(
+            model.getSetNames().get(relicOption.setIds()[0]), model.getSetNames().get(relicOption.setIds()[1])
+        ));
+        assertEquals(relicOption.setIds()[1], relicOption.getOtherSetId(0));
+    }
+
+    private static JsonObject createDB(JsonObject character) {
+        JsonObject root = new JsonObject();
+        root.addProperty(DBModel.SCHEMA_VERSION_KEY, DBModel.CURRENT_SCHEMA_VERSION);
+
+        JsonArray relicNames = new JsonArray();
+        List.of("Set A", "Set B", "Set C").forEach(relicNames::add);
+        root.add(RelicType.RELIC.getJsonKey(), relicNames);
+
+        JsonArray ornamentNames = new JsonArray();
+        ornamentNames.add("Ornament A");
+        root.add(RelicType.ORNAMENT.getJsonKey(), ornamentNames);
+
+        JsonArray characters = new JsonArray();
+        characters.add(character);
+        root.add("characters", characters);
+
+        return root;
+    }
+
+    private static JsonObject createCharacter() {
+        JsonObject character = new JsonObject();
+        character.addProperty("name", "Character");
+        character.addProperty("url", "https://example.com/characters/character/");
+        character.add(RelicType.ORNAMENT.getJsonKey(), toArray(createOption(1, "Ornament A")));
+
+        JsonObject mainStats = new JsonObject();
+        for (RelicPart part : RelicPart.values())
+            if (part.getJsonKey() != null)
+                mainStats.add(part.getJsonKey(), toStatArray(part.getAvailableStats().get(0)));
+
+        character.add("mainStats", mainStats);
+
+        JsonArray subStats = new JsonArray();
+        subStats.add(toStatArray(Stat.CRIT_RATE));
+        character.add("subStats", subStats);
+
+        return character;
+    }
+
+    private static JsonObject createOption(int rank, String... setNames) {
+        JsonObject option = new JsonObject();
+        option.addProperty("rank", rank);
+
+        JsonArray sets = new JsonArray();
+        for (String setName : setNames) {
+            JsonObject set = new JsonObject();
+            set.addProperty("name", setName);
+            set.addProperty("count", 4 / setNames.length);
+            sets.add(set);
+        }
+
+        option.add("sets", sets);
+        return option;
+    }
+
+    private static JsonArray toArray(JsonObject... values) {
+        JsonArray array = new JsonArray();
+        for (JsonObject value : values)
+            array.add(value);
+
+        return array;
+    }
+
+    private static JsonArray toStatArray(Stat stat) {
+        JsonArray array = new JsonArray();
+        array.add(stat.name());
+        return array;
+    }
+
+}